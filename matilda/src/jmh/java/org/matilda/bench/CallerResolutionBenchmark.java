@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.matilda.bootstrap.MatildaAccessControl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of a permission check as a function of the stack depth below the caller and of the number of
+ * threads checking concurrently.
+ * The caller is found at the top of the stack, the latency should therefore not grow with the depth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallerResolutionBenchmark {
+
+    // Number of application frames below the frame that triggers the check
+    @Param({"0", "16", "64", "256", "1024"})
+    public int depth;
+
+    private MatildaAccessControl accessControl;
+
+    @Setup
+    public void setup() {
+        Properties props = new Properties();
+        // Benchmarks run on the classpath
+        props.setProperty("matilda.network.connect.allow", "module ALL-UNNAMED");
+        accessControl = new MatildaAccessControl(props);
+    }
+
+    @Benchmark
+    public int checkAtDepth() {
+        return descend(depth);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int checkAtDepthFourThreads() {
+        return descend(depth);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int checkAtDepthAllThreads() {
+        return descend(depth);
+    }
+
+    /**
+     * Recursively builds up the stack before the check is triggered
+     * @param remaining - number of frames that still need to be added
+     * @return int - number of frames that have been added
+     */
+    private int descend(int remaining) {
+        if (remaining == 0) {
+            accessControl.checkPermissionInternal("Socket.connect");
+            return 0;
+        }
+        return descend(remaining - 1) + 1;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads tens of thousands of synthetic classes in a fresh class loader per invocation, every class load passes the
+ * transformers of the agent. Results are reported per class, the forks are configured by the subclasses
+ * {@link ClassLoadingWithAgentBenchmark} and {@link ClassLoadingWithoutAgentBenchmark}.
+ * Run with -PjmhProfiler=gc to get the allocations per class load.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public abstract class ClassLoadingBenchmark {
+    static final int CLASS_COUNT = 20_000;
+
+    // Number of threads loading classes from the same class loader concurrently
+    @Param({"1", "8"})
+    public int loaderThreads;
+
+    private Map<String, byte[]> classes;
+    private List<List<String>> partitions;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void generateClasses() {
+        classes = SyntheticClasses.generate(CLASS_COUNT);
+        partitions = new ArrayList<>();
+        for (int i = 0; i < loaderThreads; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        int index = 0;
+        for (String name : classes.keySet()) {
+            partitions.get(index++ % loaderThreads).add(name);
+        }
+        executor = Executors.newFixedThreadPool(loaderThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASS_COUNT)
+    public ClassLoader loadClasses() throws Exception {
+        ClassLoader loader = new SyntheticClasses.SyntheticClassLoader(classes);
+        List<Future<?>> loads = new ArrayList<>();
+        for (List<String> partition : partitions) {
+            loads.add(executor.submit(() -> {
+                for (String name : partition) {
+                    loader.loadClass(name);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> load : loads) {
+            load.get();
+        }
+        return loader;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.matilda.bootstrap.MatildaAccessControl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a ProcessBuilder.start check as a function of the number of command rules of the calling module, the rules
+ * are compiled into an automaton and the cost is bounded by the number of arguments regardless of the number of rules.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandBenchmark {
+
+    // Number of command rules of the calling module
+    @Param({"10", "1000", "50000"})
+    public int ruleCount;
+
+    private MatildaAccessControl accessControl;
+    private List<String> allowedCommand;
+    private List<String> deniedCommand;
+
+    @Setup
+    public void setup() {
+        StringJoiner commands = new StringJoiner(",");
+        commands.add("module ALL-UNNAMED git **");
+        for (int i = 1; i < ruleCount; i++) {
+            commands.add("module ALL-UNNAMED tool" + i + " --config * run");
+        }
+        Properties props = new Properties();
+        props.setProperty("matilda.system.exec.allow", "module ALL-UNNAMED");
+        props.setProperty("matilda.system.exec.commands", commands.toString());
+        accessControl = new MatildaAccessControl(props);
+        allowedCommand = List.of("tool" + (ruleCount - 1), "--config", "build.properties", "run");
+        deniedCommand = List.of("sh", "-c", "git status");
+    }
+
+    @Benchmark
+    public void allowedCommand() {
+        accessControl.checkPermissionInternal(allowedCommand);
+    }
+
+    @Benchmark
+    public RuntimeException deniedCommand() {
+        try {
+            accessControl.checkPermissionInternal(deniedCommand);
+            throw new IllegalStateException("ProcessBuilder.start should have been denied");
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+}
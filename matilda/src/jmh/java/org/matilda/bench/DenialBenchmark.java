@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.matilda.bootstrap.MatildaAccessControl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A flood of denied checks from 64 concurrent threads compared to the same number of allowed checks. With the stack
+ * trace switched off, or filled once per module and operation, a denial should only cost a small multiple of a check
+ * that allows the operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class DenialBenchmark {
+
+    @Param({"full", "once", "none"})
+    public String stackTrace;
+
+    private MatildaAccessControl accessControl;
+
+    @Setup
+    public void setup() {
+        Properties props = new Properties();
+        props.setProperty("matilda.network.connect.allow", "module ALL-UNNAMED");
+        props.setProperty("matilda.denial.stacktrace", stackTrace);
+        accessControl = new MatildaAccessControl(props);
+    }
+
+    @Benchmark
+    public void allowed() {
+        accessControl.checkPermissionInternal("Socket.connect");
+    }
+
+    @Benchmark
+    public RuntimeException denied() {
+        try {
+            accessControl.checkPermissionInternal("ServerSocket.bind");
+            throw new IllegalStateException("ServerSocket.bind should have been denied");
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.matilda.bootstrap.MatildaAccessControl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a connect check as a function of the number of CIDR rules of the calling module, the lookup walks a prefix
+ * trie and its cost is bounded by the length of the address regardless of the number of rules.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndpointBenchmark {
+
+    // Number of /24 ranges the calling module may connect to
+    @Param({"10", "1000", "50000"})
+    public int ruleCount;
+
+    private MatildaAccessControl accessControl;
+    private InetSocketAddress allowedEndpoint;
+    private InetSocketAddress deniedEndpoint;
+
+    @Setup
+    public void setup() throws UnknownHostException {
+        StringJoiner endpoints = new StringJoiner(",");
+        for (int i = 0; i < ruleCount; i++) {
+            endpoints.add("module ALL-UNNAMED 10." + (i >> 8 & 0xFF) + "." + (i & 0xFF) + ".0/24:443");
+        }
+        Properties props = new Properties();
+        props.setProperty("matilda.network.connect.allow", "module ALL-UNNAMED");
+        props.setProperty("matilda.network.connect.endpoints", endpoints.toString());
+        accessControl = new MatildaAccessControl(props);
+        allowedEndpoint = new InetSocketAddress(InetAddress.getByName("10.0.7.1"), 443);
+        deniedEndpoint = new InetSocketAddress(InetAddress.getByName("172.16.0.1"), 443);
+    }
+
+    @Benchmark
+    public void allowedEndpoint() {
+        accessControl.checkPermissionInternal("Socket.connect", allowedEndpoint);
+    }
+
+    @Benchmark
+    public RuntimeException deniedEndpoint() {
+        try {
+            accessControl.checkPermissionInternal("Socket.connect", deniedEndpoint);
+            throw new IllegalStateException("Socket.connect should have been denied");
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+}
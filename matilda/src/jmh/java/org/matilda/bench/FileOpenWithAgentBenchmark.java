@@ -0,0 +1,29 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * Opens files in JVMs with the MatildaAgent attached and file opens instrumented, the forks inherit the agent and the
+ * configuration of the JMH runner. Application code may open files below the root, which needs a path check and its
+ * memoized verdict on every open.
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Dmatilda.file.open.instrumentation=true", "-Dmatilda.file.open.allow=module *",
+        "-Dmatilda.file.open.paths=module ALL-UNNAMED /"})
+public class FileOpenWithAgentBenchmark extends FileOpenBenchmark {
+}
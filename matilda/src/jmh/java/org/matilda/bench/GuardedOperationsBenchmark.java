@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guarded operations that are benchmarked with and without the MatildaAgent, the forks are configured by the
+ * subclasses {@link WithAgentBenchmark} and {@link WithoutAgentBenchmark}. The difference of both results is what
+ * Matilda costs per guarded call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class GuardedOperationsBenchmark {
+
+    private ServerSocket server;
+    private Thread acceptor;
+    private InetSocketAddress serverAddress;
+    private InetSocketAddress bindAddress;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        bindAddress = new InetSocketAddress(loopback, 0);
+        server = new ServerSocket();
+        server.bind(bindAddress, 1024);
+        serverAddress = new InetSocketAddress(loopback, server.getLocalPort());
+        // accepts and immediately closes connections until the server is closed
+        acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try (Socket accepted = server.accept()) {
+                    // connection is closed right away
+                } catch (IOException e) {
+                    // server was closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException, InterruptedException {
+        server.close();
+        acceptor.join();
+    }
+
+    @Benchmark
+    public boolean socketConnect() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(serverAddress);
+            return socket.isConnected();
+        }
+    }
+
+    @Benchmark
+    public int serverSocketBind() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket()) {
+            serverSocket.bind(bindAddress);
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    @Benchmark
+    public int processBuilderStart() throws IOException, InterruptedException {
+        return new ProcessBuilder("true").start().waitFor();
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.matilda.bootstrap.ModuleProxy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the reflective calls of ModuleProxy.call with the cached MethodHandles of ModuleProxy.invoke and
+ * ModuleProxy.newInstance. The called methods are not guarded, only the cost of the indirection is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModuleProxyBenchmark {
+
+    private Method concat;
+    private Constructor<StringBuilder> stringBuilder;
+    private final Object[] concatArgs = {"bar"};
+    private final Object[] constructorArgs = {"foo"};
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        concat = String.class.getMethod("concat", String.class);
+        stringBuilder = StringBuilder.class.getConstructor(String.class);
+    }
+
+    @Benchmark
+    public Object reflectiveMethod() throws InvocationTargetException, IllegalAccessException {
+        return ModuleProxy.call("foo", concat, concatArgs);
+    }
+
+    @Benchmark
+    public Object cachedMethodHandle() throws InvocationTargetException, IllegalAccessException {
+        return ModuleProxy.invoke("foo", concat, concatArgs);
+    }
+
+    @Benchmark
+    public StringBuilder reflectiveConstructor() throws ReflectiveOperationException {
+        return ModuleProxy.call(stringBuilder, constructorArgs);
+    }
+
+    @Benchmark
+    public StringBuilder cachedConstructorHandle() throws ReflectiveOperationException {
+        return ModuleProxy.newInstance(stringBuilder, constructorArgs);
+    }
+}
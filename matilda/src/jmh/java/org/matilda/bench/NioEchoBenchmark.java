@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips of 1 KiB through a local NIO echo server with and without the MatildaAgent, the forks are configured by
+ * the subclasses {@link NioEchoWithAgentBenchmark} and {@link NioEchoWithoutAgentBenchmark}. Connects and binds are
+ * checked once per channel, reads and writes are never checked, the throughput of both should be equal within noise.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class NioEchoBenchmark {
+    private static final int MESSAGE_SIZE = 1024;
+
+    private ServerSocketChannel server;
+    private Thread echo;
+    private SocketChannel client;
+    private final ByteBuffer message = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+    private final ByteBuffer reply = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        // echoes everything it reads until the connection is closed
+        echo = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+            try (SocketChannel accepted = server.accept()) {
+                while (accepted.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        accepted.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // server was closed
+            }
+        });
+        echo.setDaemon(true);
+        echo.start();
+        client = SocketChannel.open(server.getLocalAddress());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException, InterruptedException {
+        client.close();
+        server.close();
+        echo.join();
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        message.clear();
+        while (message.hasRemaining()) {
+            client.write(message);
+        }
+        reply.clear();
+        while (reply.hasRemaining()) {
+            if (client.read(reply) < 0) {
+                throw new IOException("Echo server closed the connection");
+            }
+        }
+        return reply.get(0);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.matilda.bootstrap.MatildaAccessControl;
+import org.matilda.bootstrap.MatildaPolicyCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to load a policy at startup as a function of the number of module rules, a policy in the
+ * properties format is parsed and validated while a compiled policy is only read and its layout validated.
+ * Each load happens once per JVM, therefore every invocation is measured on its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class PolicyLoadBenchmark {
+
+    // Number of modules that are allowed per operation
+    @Param({"10", "1000", "10000"})
+    public int ruleCount;
+
+    @Param({"true", "false"})
+    public boolean compiled;
+
+    private Path directory;
+    private Properties props;
+
+    @Setup(Level.Trial)
+    public void writePolicy() throws IOException {
+        directory = Files.createTempDirectory("matilda-policy");
+        StringJoiner modules = new StringJoiner(",");
+        for (int i = 0; i < ruleCount; i++) {
+            modules.add("module org.matilda.bench.module" + i);
+        }
+        Path source = directory.resolve("matilda.properties");
+        Files.writeString(source, "matilda.runtime.exit.allow=" + modules + "\n"
+                + "matilda.system.exec.allow=" + modules + "\n"
+                + "matilda.network.connect.allow=" + modules + "\n"
+                + "matilda.server.bind.allow=" + modules + "\n");
+        Path policyFile = source;
+        if (compiled) {
+            policyFile = directory.resolve("matilda.policy");
+            MatildaPolicyCompiler.compile(source, policyFile);
+        }
+        props = new Properties();
+        props.setProperty("matilda.policy.file", policyFile.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void deletePolicy() throws IOException {
+        Files.deleteIfExists(directory.resolve("matilda.policy"));
+        Files.deleteIfExists(directory.resolve("matilda.properties"));
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public MatildaAccessControl load() {
+        return new MatildaAccessControl(props);
+    }
+}
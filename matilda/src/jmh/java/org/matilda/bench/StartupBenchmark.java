@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the total startup time of a sample application with a large classpath, the application is started in a
+ * new JVM with and without the MatildaAgent. The agent and its configuration are taken from the JMH runner.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+
+    // Number of classes on the classpath of the sample application
+    @Param({"1000", "20000"})
+    public int classCount;
+
+    @Param({"true", "false"})
+    public boolean agent;
+
+    private Path directory;
+    private List<String> command;
+
+    @Setup(Level.Trial)
+    public void createApplication() throws IOException {
+        directory = Files.createTempDirectory("matilda-startup");
+        Path jar = directory.resolve("classes.jar");
+        SyntheticClasses.writeJar(jar, SyntheticClasses.generate(classCount));
+
+        command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("--enable-preview");
+        if (agent) {
+            List<String> agentArguments = ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+                    .filter(argument -> argument.startsWith("-javaagent:") || argument.startsWith("-Dmatilda."))
+                    .toList();
+            if (agentArguments.isEmpty()) {
+                throw new IllegalStateException("MatildaAgent is not attached to the benchmark JVM");
+            }
+            command.addAll(agentArguments);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path") + File.pathSeparator + jar);
+        command.add(StartupMain.class.getName());
+        command.add(jar.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteApplication() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int startup() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        int exitValue = process.waitFor();
+        if (exitValue != 0) {
+            throw new IllegalStateException("Sample application failed with exit value " + exitValue);
+        }
+        return exitValue;
+    }
+}
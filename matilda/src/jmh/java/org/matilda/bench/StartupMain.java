@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Sample application of the {@link StartupBenchmark}, initializes every class of the jar that is passed as argument
+ */
+public final class StartupMain {
+
+    private StartupMain() {
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        ClassLoader loader = StartupMain.class.getClassLoader();
+        try (JarFile jar = new JarFile(args[0])) {
+            for (JarEntry entry : Collections.list(jar.entries())) {
+                String name = entry.getName();
+                if (name.endsWith(".class")) {
+                    Class.forName(name.substring(0, name.length() - ".class".length()).replace('/', '.'), true, loader);
+                }
+            }
+        }
+    }
+}
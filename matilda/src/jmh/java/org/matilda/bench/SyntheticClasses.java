@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.classfile.ClassFile;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generates small classes with the ClassFile API, used to measure what the agent adds to class loading
+ */
+@SuppressWarnings("preview")
+final class SyntheticClasses {
+    static final String PACKAGE = "org.matilda.bench.synthetic";
+
+    private SyntheticClasses() {
+    }
+
+    /**
+     * Generates classes with a constructor and a static method each
+     * @param count - number of classes that should be generated
+     * @return Map - binary name of the class mapped to its class file
+     */
+    static Map<String, byte[]> generate(int count) {
+        ClassFile classFile = ClassFile.of();
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = PACKAGE + ".Synthetic" + i;
+            Integer value = i;
+            byte[] bytes = classFile.build(ClassDesc.of(name), classBuilder -> classBuilder
+                    .withFlags(ClassFile.ACC_PUBLIC)
+                    .withSuperclass(ConstantDescs.CD_Object)
+                    .withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_PUBLIC,
+                            codeBuilder -> codeBuilder
+                                    .aload(0)
+                                    .invokespecial(ConstantDescs.CD_Object, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                                    .return_())
+                    .withMethodBody("value", MethodTypeDesc.of(ConstantDescs.CD_int),
+                            ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC,
+                            codeBuilder -> codeBuilder
+                                    .ldc(value)
+                                    .ireturn()));
+            classes.put(name, bytes);
+        }
+        return classes;
+    }
+
+    /**
+     * Writes classes into a jar file
+     * @param jar - path of the jar that is created
+     * @param classes - binary name of the class mapped to its class file
+     * @throws IOException - if the jar can't be written
+     */
+    static void writeJar(Path jar, Map<String, byte[]> classes) throws IOException {
+        try (OutputStream out = Files.newOutputStream(jar); JarOutputStream jarOut = new JarOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                jarOut.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+                jarOut.write(entry.getValue());
+                jarOut.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Defines the generated classes, a new loader loads all classes again
+     */
+    static final class SyntheticClassLoader extends ClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        private final Map<String, byte[]> classes;
+
+        SyntheticClassLoader(Map<String, byte[]> classes) {
+            super(SyntheticClasses.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
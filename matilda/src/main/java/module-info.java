@@ -18,7 +18,10 @@ module matilda.core {
     requires java.logging;
     requires java.base;
     requires java.instrument;
+    requires java.management;
+    requires static jdk.jfr;
     exports org.matilda.bootstrap;
+    exports org.matilda to matilda.test;
     opens org.matilda to java.instrument;
-    opens org.matilda.bootstrap to java.instrument;
+    opens org.matilda.bootstrap to java.instrument, matilda.test;
 }
\ No newline at end of file
@@ -18,8 +18,9 @@
 package org.matilda;
 import module java.base;
 import module java.instrument;
-
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
 
 /**
  *
@@ -34,6 +35,11 @@ import java.util.logging.Logger;
  *
  */
 public final class AgentMatilda {
+    // ClassFile contexts are immutable and thread safe, a single context is shared by all transformations
+    @SuppressWarnings("preview")
+    static final ClassFile CLASS_FILE = ClassFile.of(ClassFile.DebugElementsOption.DROP_DEBUG);
+    // Transformations are recorded as flight recorder events if the jdk.jfr module is present
+    private static final boolean FLIGHT_RECORDER = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
 
     /**
      * Agent needs to be hooked when JVM is started using the  following commandline argument
@@ -58,66 +64,64 @@ public final class AgentMatilda {
         JarFile bootstrapJar = new JarFile(bootStrapJarPath);
 
 
+        /*
+         * As a reference to the MatildaAccessController is injected into each of the transformed classes, it needs to
+         * be accessible to the classloader of the classes or its parent. Since System classes are loaded by the
+         * platform classloader they need to be discoverable for the bootstrap classloader. The jar is appended before
+         * any class is transformed, a check that can't be linked fails for good.
+         */
+        inst.appendToBootstrapClassLoaderSearch(bootstrapJar);
+
         /*
           The ClassFileTransformer provides a byte Array of the loaded class, it will be triggered for any class loaded
           return null if class should not be modified -> managed in AccessController
          */
-        var transformer = new ClassFileTransformer() {
-            @Override
-            public byte[] transform(ClassLoader      loader,
-                                    String           className,
-                                    Class<?>         classBeingRedefined,
-                                    ProtectionDomain protectionDomain,
-                                    byte[]           classBytes) {
-                switch (className) {
-                    case "java/lang/ProcessBuilder":
-                        return processClasses(classBytes, new SystemExecTransformer());
-                    case "java/net/Socket":
-                        return processClasses(classBytes, new NetworkSocketTransformer());
-                    case "java/net/ServerSocket":
-                        return processClasses(classBytes, new ServerSocketTransformer());
-                    default:
-                        return null;
-                }
-            }
-
-        };
-        inst.addTransformer(transformer, false);
-
-        var retransform = new ClassFileTransformer() {
-            private final AtomicBoolean wasExecuted = new AtomicBoolean(false);
-            @Override
-            public byte[] transform(ClassLoader      loader,
-                                    String           className,
-                                    Class<?>         classBeingRedefined,
-                                    ProtectionDomain protectionDomain,
-                                    byte[]           classBytes) {
-                if (className.equals("java/lang/Runtime")) {
-                    if (!wasExecuted.getAndSet(true)) {
-                        return processClasses(classBytes, new SystemExitTransformer());
-                    }
-                }
-                return null;
-            }
-
-        };
-        inst.addTransformer(retransform, true);
+        var registry = MatildaTransformerRegistry.withDefaults();
+        // File opens are only guarded if they are enabled
+        var fileOpenInstrumentation = Boolean.getBoolean("matilda.file.open.instrumentation");
+        if (fileOpenInstrumentation) {
+            registry.withFileOpens();
+        }
+        // Optionally guarded calls of application classes are checked at the call site without a stack walk
+        var callSiteInstrumentation = Boolean.getBoolean("matilda.callsite.instrumentation");
+        inst.addTransformer(new MatildaClassFileTransformer(registry, callSiteInstrumentation), true);
         /*
-        Needs to be set to allow retransformation of Runtime class as the Agent is started
+        Needs to be set to allow retransformation of classes like Runtime as the Agent is started
         after System classes were loaded
          */
-        inst.retransformClasses(Runtime.class);
+        inst.retransformClasses(registry.loadedTargetClasses(inst));
 
         /*
-         * As a reference to the MatildaAccessController is injected into each of the transformed classes, it needs to
-         * be accessible to the classloader of the classes or its parent. Since System classes are loaded by the
-         * platform classloader they need to be discoverable for the bootstrap classloader
+         * Files are opened while the access control is initialized, it is initialized here before any application
+         * thread runs. Otherwise a thread that opens a file could initialize the call sites while another thread
+         * initializes the access control, each waiting for the other.
          */
-        inst.appendToBootstrapClassLoaderSearch(bootstrapJar);
+        if (fileOpenInstrumentation) {
+            try {
+                Class.forName("org.matilda.bootstrap.MatildaCallSites", true, null);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("MatildaCallSites not found in " + bootStrapJarPath, e);
+            }
+        }
+
+        /*
+         * Metrics are only exposed via JMX if they are enabled, registering the MBean loads JMX and initializes the
+         * access control in premain, and every check pays for its counters and timing
+         */
+        if (Boolean.getBoolean("matilda.metrics")) {
+            try {
+                MatildaMBean.register();
+            } catch (ReflectiveOperationException | JMException e) {
+                // metrics are not needed to enforce the permissions, the application is started without them
+                Logger.getLogger(AgentMatilda.class.getName()).log(Level.WARNING, "Matilda MBean can't be registered", e);
+            }
+        }
     }
 
     /**
      * Performs the actual transformation of a method / class with the provided {@link }MatildaCodeTransformer}
+     * Only the matching methods are transformed, all other methods are passed through. As the transformed class
+     * shares the constant pool of the original class, they are copied as they are without being re-encoded.
      * @param transformer - Transformer that should be used to perform the transformation
      */
     @SuppressWarnings("preview")
@@ -129,16 +133,45 @@ public final class AgentMatilda {
 
     /**
      * Transforms the Bytearray into a ClassFile and manipulates it with a given Transformer
+     * Parsing is lazy, the method table is scanned for the method of the transformer before any transformation work
+     * is done and method bodies are only parsed if they are transformed.
      * @param classBytes - byte representation of the class that should be tranformed
      * @param transformer - Transformer that should be used
      * @return byte[] - Transformed Class or null if it's not been transformed.
+     * @see MatildaClassTransformEvent
      */
-    @SuppressWarnings("preview")
     static byte[] processClasses(byte[] classBytes, MatildaCodeTransformer transformer) {
-        ClassFile cf = ClassFile.of(ClassFile.DebugElementsOption.DROP_DEBUG);
-        ClassModel classModel = cf.parse(classBytes);
-        byte[] transformedClass =  cf.transform(classModel, transformClass(transformer));
-        final Logger logger = Logger.getLogger(AgentMatilda.class.getName());
-        return transformedClass;
+        if (FLIGHT_RECORDER) {
+            return MatildaClassTransformEvent.recordTransformation(classBytes, transformer);
+        }
+        return applyTransformer(classBytes, transformer);
+    }
+
+    /**
+     * Performs the transformation of {@link #processClasses(byte[], MatildaCodeTransformer)}
+     */
+    @SuppressWarnings("preview")
+    static byte[] applyTransformer(byte[] classBytes, MatildaCodeTransformer transformer) {
+        ClassModel classModel = CLASS_FILE.parse(classBytes);
+        if (!hasTransformedMethod(classModel, transformer.getModelPredicate())) {
+            return null;
+        }
+        return CLASS_FILE.transform(classModel, transformClass(transformer));
+    }
+
+    /**
+     * Scans the method table of a class for a method that should be transformed
+     * @param classModel - class that is scanned
+     * @param invokesTransformer - matches the methods that should be transformed
+     * @return boolean - true iff the class contains at least one method that should be transformed
+     */
+    @SuppressWarnings("preview")
+    private static boolean hasTransformedMethod(ClassModel classModel, Predicate<MethodModel> invokesTransformer) {
+        for (MethodModel method : classModel.methods()) {
+            if (invokesTransformer.test(method)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
\ No newline at end of file
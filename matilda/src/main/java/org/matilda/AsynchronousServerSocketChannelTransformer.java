@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.classfile.CodeTransform;
+import java.lang.classfile.MethodModel;
+import java.util.function.Predicate;
+
+/**
+ * Custom Transformer that allows granular blocking of Server Capabilities of AsynchronousServerSocketChannel
+ */
+@SuppressWarnings("preview")
+public class AsynchronousServerSocketChannelTransformer implements MatildaCodeTransformer {
+    // the check is passed the local address the channel binds to
+    private static final CodeTransform TRANSFORM = MatildaCodeTransformer.endpointCheck("checkServerSocketBind");
+
+    /**
+     * Instruments sun.nio.ch.AsynchronousServerSocketChannelImpl
+     */
+    @Override
+    public String getTargetClass() {
+        return "sun/nio/ch/AsynchronousServerSocketChannelImpl";
+    }
+
+    /**
+     * Transforms a class that test positive for the TransformPredicate
+     */
+    @Override
+    public CodeTransform getTransform() {
+        return TRANSFORM;
+    }
+
+    /**
+     * Matches bind(SocketAddress, int) of sun.nio.ch.AsynchronousServerSocketChannelImpl
+     *
+     * @return Predicate - Holds structure of method that should be transformed
+     */
+    @Override
+    public Predicate<MethodModel> getModelPredicate() {
+        return methodElements ->
+                // Matches bind with backlog, the bridge method with the NetworkChannel return type is not matched
+                (methodElements.methodName().equalsString("bind")
+                        && methodElements.methodType().equalsString("(Ljava/net/SocketAddress;I)Ljava/nio/channels/AsynchronousServerSocketChannel;"))
+                && methodElements.parent().get().thisClass().name().equalsString("sun/nio/ch/AsynchronousServerSocketChannelImpl");
+    }
+}
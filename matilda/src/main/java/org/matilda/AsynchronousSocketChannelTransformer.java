@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.classfile.CodeTransform;
+import java.lang.classfile.MethodModel;
+import java.util.function.Predicate;
+
+/**
+ * Custom Transformer that allows granular blocking of Network Connections of AsynchronousSocketChannel, the
+ * check runs once per connect before the connect is initiated and never per read or write
+ */
+@SuppressWarnings("preview")
+public class AsynchronousSocketChannelTransformer implements MatildaCodeTransformer {
+    // the check is passed the endpoint the channel connects to
+    private static final CodeTransform TRANSFORM = MatildaCodeTransformer.endpointCheck("checkSocketConnect");
+
+    /**
+     * Instruments sun.nio.ch.AsynchronousSocketChannelImpl
+     */
+    @Override
+    public String getTargetClass() {
+        return "sun/nio/ch/AsynchronousSocketChannelImpl";
+    }
+
+    /**
+     * Transforms a class that test positive for the TransformPredicate
+     */
+    @Override
+    public CodeTransform getTransform() {
+        return TRANSFORM;
+    }
+
+    /**
+     * Matches the connect methods returning a Future and taking a CompletionHandler of
+     * sun.nio.ch.AsynchronousSocketChannelImpl, all platform specific implementations extend it
+     *
+     * @return Predicate - Holds structure of method that should be transformed
+     */
+    @Override
+    public Predicate<MethodModel> getModelPredicate() {
+        return methodElements ->
+                // Matches both connect methods
+                ((methodElements.methodName().equalsString("connect")
+                        && methodElements.methodType().equalsString("(Ljava/net/SocketAddress;)Ljava/util/concurrent/Future;"))
+                        || (methodElements.methodName().equalsString("connect")
+                        && methodElements.methodType().equalsString("(Ljava/net/SocketAddress;Ljava/lang/Object;Ljava/nio/channels/CompletionHandler;)V")))
+                && methodElements.parent().get().thisClass().name().equalsString("sun/nio/ch/AsynchronousSocketChannelImpl");
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.classfile.CodeTransform;
+import java.lang.classfile.MethodModel;
+import java.util.function.Predicate;
+
+/**
+ * Custom Transformer that allows granular blocking of connected DatagramChannels, connects of the DatagramSocket
+ * adaptor are checked as well. Datagrams sent without connecting the channel first are checked by the
+ * {@link DatagramChannelSendTransformer}
+ */
+@SuppressWarnings("preview")
+public class DatagramChannelConnectTransformer implements MatildaCodeTransformer {
+    // the check is passed the endpoint the channel connects to
+    private static final CodeTransform TRANSFORM = MatildaCodeTransformer.endpointCheck("checkSocketConnect");
+
+    /**
+     * Instruments sun.nio.ch.DatagramChannelImpl
+     */
+    @Override
+    public String getTargetClass() {
+        return "sun/nio/ch/DatagramChannelImpl";
+    }
+
+    /**
+     * Transforms a class that test positive for the TransformPredicate
+     */
+    @Override
+    public CodeTransform getTransform() {
+        return TRANSFORM;
+    }
+
+    /**
+     * Matches connect(SocketAddress, boolean) of sun.nio.ch.DatagramChannelImpl, connect(SocketAddress) and the
+     * DatagramSocket adaptor delegate to it
+     *
+     * @return Predicate - Holds structure of method that should be transformed
+     */
+    @Override
+    public Predicate<MethodModel> getModelPredicate() {
+        return methodElements ->
+                // Matches the connect that is shared by the channel and the adaptor
+                (methodElements.methodName().equalsString("connect")
+                        && methodElements.methodType().equalsString("(Ljava/net/SocketAddress;Z)Ljava/nio/channels/DatagramChannel;"))
+                && methodElements.parent().get().thisClass().name().equalsString("sun/nio/ch/DatagramChannelImpl");
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.classfile.CodeTransform;
+import java.lang.classfile.MethodModel;
+import java.util.function.Predicate;
+
+/**
+ * Custom Transformer that allows granular blocking of datagrams that are sent without connecting the DatagramChannel
+ * first, every send is checked like a connect to its target. Sends of the DatagramSocket adaptor are checked as well.
+ */
+@SuppressWarnings("preview")
+public class DatagramChannelSendTransformer implements MatildaCodeTransformer {
+    // the check is passed the channel, to skip sends of connected channels, and the target of the datagram
+    private static final CodeTransform TRANSFORM = MatildaCodeTransformer.argumentsCheck("checkDatagramSend",
+            "(Ljava/nio/channels/DatagramChannel;Ljava/net/SocketAddress;)V", 0, 2);
+
+    /**
+     * Instruments sun.nio.ch.DatagramChannelImpl
+     */
+    @Override
+    public String getTargetClass() {
+        return "sun/nio/ch/DatagramChannelImpl";
+    }
+
+    /**
+     * Transforms a class that test positive for the TransformPredicate
+     */
+    @Override
+    public CodeTransform getTransform() {
+        return TRANSFORM;
+    }
+
+    /**
+     * Matches send(ByteBuffer, SocketAddress) of sun.nio.ch.DatagramChannelImpl and blockingSend(ByteBuffer,
+     * SocketAddress) the DatagramSocket adaptor sends its packets with
+     *
+     * @return Predicate - Holds structure of method that should be transformed
+     */
+    @Override
+    public Predicate<MethodModel> getModelPredicate() {
+        return methodElements ->
+                // Matches the send of the channel, the private send that writes to the file descriptor is not matched
+                ((methodElements.methodName().equalsString("send")
+                        && methodElements.methodType().equalsString("(Ljava/nio/ByteBuffer;Ljava/net/SocketAddress;)I"))
+                        // Matches the send of the adaptor
+                        || (methodElements.methodName().equalsString("blockingSend")
+                        && methodElements.methodType().equalsString("(Ljava/nio/ByteBuffer;Ljava/net/SocketAddress;)V")))
+                && methodElements.parent().get().thisClass().name().equalsString("sun/nio/ch/DatagramChannelImpl");
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.classfile.CodeTransform;
+import java.lang.classfile.MethodModel;
+import java.util.function.Predicate;
+
+/**
+ * Custom Transformer that allows granular blocking of files opened for reading with FileInputStream, all public
+ * constructors that take a path delegate to FileInputStream(File). Installed with
+ * -Dmatilda.file.open.instrumentation=true.
+ */
+@SuppressWarnings("preview")
+public class FileInputStreamTransformer implements MatildaCodeTransformer {
+    // the check is passed the file, the first argument of the constructor
+    private static final CodeTransform TRANSFORM =
+            MatildaCodeTransformer.argumentCheck("checkFileOpen", 1, "(Ljava/io/File;)V");
+
+    /**
+     * Instruments java.io.FileInputStream
+     */
+    @Override
+    public String getTargetClass() {
+        return "java/io/FileInputStream";
+    }
+
+    /**
+     * Transforms a class that test positive for the TransformPredicate
+     */
+    @Override
+    public CodeTransform getTransform() {
+        return TRANSFORM;
+    }
+
+    /**
+     * Matches the constructor FileInputStream(File) of java.io.FileInputStream
+     *
+     * @return Predicate - Holds structure of method that should be transformed
+     */
+    @Override
+    public Predicate<MethodModel> getModelPredicate() {
+        return methodElements ->
+                // Matches the constructor
+                methodElements.methodName().equalsString("<init>")
+                && methodElements.methodType().equalsString("(Ljava/io/File;)V")
+                && methodElements.parent().get().thisClass().name().equalsString("java/io/FileInputStream");
+    }
+}
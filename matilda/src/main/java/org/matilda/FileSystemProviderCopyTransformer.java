@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.CodeElement;
+import java.lang.classfile.CodeTransform;
+import java.lang.classfile.MethodModel;
+import java.lang.constant.DynamicCallSiteDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.util.function.Predicate;
+
+/**
+ * Custom Transformer that allows granular blocking of files copied or moved by the provider of the default file
+ * system, Files.copy and Files.move of two paths open the files natively without a channel. The source and the target
+ * are checked like file opens. Installed with -Dmatilda.file.open.instrumentation=true.
+ */
+@SuppressWarnings("preview")
+public class FileSystemProviderCopyTransformer implements MatildaCodeTransformer {
+    private static final DynamicCallSiteDesc CHECK =
+            MatildaCodeTransformer.permissionCheck("checkFileOpen", MethodTypeDesc.ofDescriptor("(Ljava/nio/file/Path;)V"));
+    // Transform is stateless, it is shared by all methods and classes that are instrumented
+    private static final CodeTransform TRANSFORM = new CodeTransform() {
+        /**
+         * Injects the checks at the entry point of the method, before its first instruction, the source and the target
+         * are checked one after the other
+         */
+        @Override
+        public void atStart(CodeBuilder codeBuilder) {
+            codeBuilder.aload(1);
+            codeBuilder.invokedynamic(CHECK);
+            codeBuilder.aload(2);
+            codeBuilder.invokedynamic(CHECK);
+        }
+
+        @Override
+        public void accept(CodeBuilder codeBuilder, CodeElement codeElement) {
+            codeBuilder.with(codeElement);
+        }
+    };
+    private final String targetClass;
+
+    /**
+     * @param targetClass - internal name of the provider e.g. sun/nio/fs/UnixFileSystemProvider
+     */
+    public FileSystemProviderCopyTransformer(String targetClass) {
+        this.targetClass = targetClass;
+    }
+
+    /**
+     * Instruments the provider of the default file system
+     */
+    @Override
+    public String getTargetClass() {
+        return targetClass;
+    }
+
+    /**
+     * Transforms a class that test positive for the TransformPredicate
+     */
+    @Override
+    public CodeTransform getTransform() {
+        return TRANSFORM;
+    }
+
+    /**
+     * Matches copy(Path, Path, CopyOption...) and move(Path, Path, CopyOption...) of the provider
+     *
+     * @return Predicate - Holds structure of method that should be transformed
+     */
+    @Override
+    public Predicate<MethodModel> getModelPredicate() {
+        return methodElements ->
+                (methodElements.methodName().equalsString("copy") || methodElements.methodName().equalsString("move"))
+                && methodElements.methodType().equalsString("(Ljava/nio/file/Path;Ljava/nio/file/Path;[Ljava/nio/file/CopyOption;)V")
+                && methodElements.parent().get().thisClass().name().equalsString(targetClass);
+    }
+}
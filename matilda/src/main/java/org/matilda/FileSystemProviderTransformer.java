@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.classfile.CodeTransform;
+import java.lang.classfile.MethodModel;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Custom Transformer that allows granular blocking of files opened by the provider of the default file system. The
+ * channels and streams of Files e.g. Files.write, Files.newOutputStream and Files.newInputStream, FileChannel.open and
+ * AsynchronousFileChannel.open all open their file with newByteChannel, newFileChannel or newAsynchronousFileChannel
+ * of the provider. Installed with -Dmatilda.file.open.instrumentation=true.
+ */
+@SuppressWarnings("preview")
+public class FileSystemProviderTransformer implements MatildaCodeTransformer {
+    // Providers of the default file system, only the provider of the platform is ever loaded
+    static final List<String> DEFAULT_PROVIDERS =
+            List.of("sun/nio/fs/UnixFileSystemProvider", "sun/nio/fs/WindowsFileSystemProvider");
+    // the check is passed the path, the first argument of the instance methods
+    private static final CodeTransform TRANSFORM =
+            MatildaCodeTransformer.argumentCheck("checkFileOpen", 1, "(Ljava/nio/file/Path;)V");
+    private final String targetClass;
+
+    /**
+     * @param targetClass - internal name of the provider e.g. sun/nio/fs/UnixFileSystemProvider
+     */
+    public FileSystemProviderTransformer(String targetClass) {
+        this.targetClass = targetClass;
+    }
+
+    /**
+     * Instruments the provider of the default file system
+     */
+    @Override
+    public String getTargetClass() {
+        return targetClass;
+    }
+
+    /**
+     * Transforms a class that test positive for the TransformPredicate
+     */
+    @Override
+    public CodeTransform getTransform() {
+        return TRANSFORM;
+    }
+
+    /**
+     * Matches newByteChannel, newFileChannel and newAsynchronousFileChannel of the provider
+     *
+     * @return Predicate - Holds structure of method that should be transformed
+     */
+    @Override
+    public Predicate<MethodModel> getModelPredicate() {
+        return methodElements ->
+                (methodElements.methodName().equalsString("newByteChannel")
+                        && methodElements.methodType().equalsString(
+                        "(Ljava/nio/file/Path;Ljava/util/Set;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/SeekableByteChannel;")
+                || methodElements.methodName().equalsString("newFileChannel")
+                        && methodElements.methodType().equalsString(
+                        "(Ljava/nio/file/Path;Ljava/util/Set;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/FileChannel;")
+                || methodElements.methodName().equalsString("newAsynchronousFileChannel")
+                        && methodElements.methodType().equalsString(
+                        "(Ljava/nio/file/Path;Ljava/util/Set;Ljava/util/concurrent/ExecutorService;[Ljava/nio/file/attribute/FileAttribute;)Ljava/nio/channels/AsynchronousFileChannel;"))
+                && methodElements.parent().get().thisClass().name().equalsString(targetClass);
+    }
+}
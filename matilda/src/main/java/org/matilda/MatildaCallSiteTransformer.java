@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.ClassTransform;
+import java.lang.classfile.CodeTransform;
+import java.lang.classfile.Opcode;
+import java.lang.classfile.constantpool.MethodRefEntry;
+import java.lang.classfile.constantpool.PoolEntry;
+import java.lang.classfile.constantpool.Utf8Entry;
+import java.lang.classfile.instruction.InvokeInstruction;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.DynamicCallSiteDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.util.List;
+
+/**
+ * Rewrites calls of guarded methods in application classes, used if the agent runs with
+ * -Dmatilda.callsite.instrumentation=true. Each call is replaced with an invokedynamic instruction bootstrapped by
+ * MatildaCallerChecks, which binds the module of the calling class and checks it without walking the stack.
+ * Only direct calls are rewritten, reflective and MethodHandle calls are still checked by the instrumented methods.
+ */
+@SuppressWarnings("preview")
+final class MatildaCallSiteTransformer {
+    // Needs to be hard coded in order to not run into classpath issues when using MatildaCallerChecks, as it is not loaded yet
+    private static final DirectMethodHandleDesc BOOTSTRAP = ConstantDescs.ofCallsiteBootstrap(
+            ClassDesc.of("org.matilda.bootstrap.MatildaCallerChecks"), "bootstrap", ConstantDescs.CD_CallSite);
+
+    /**
+     * Guarded method that is called by an application class and the check of MatildaCallerChecks that replaces it
+     * @param opcode - invoke instruction of the call
+     * @param owner - internal name of the class that declares the method
+     * @param name - name of the method
+     * @param descriptor - descriptor of the method
+     * @param check - call site that replaces the call, the receiver of instance methods is its first parameter
+     */
+    private record GuardedCall(Opcode opcode, String owner, String name, String descriptor, DynamicCallSiteDesc check) {
+
+        GuardedCall(Opcode opcode, String owner, String name, String descriptor, String check, String checkDescriptor) {
+            this(opcode, owner, name, descriptor,
+                    DynamicCallSiteDesc.of(BOOTSTRAP, check, MethodTypeDesc.ofDescriptor(checkDescriptor)));
+        }
+
+        boolean matches(Utf8Entry owner, Utf8Entry name, Utf8Entry descriptor) {
+            return name.equalsString(this.name) && descriptor.equalsString(this.descriptor)
+                    && owner.equalsString(this.owner);
+        }
+    }
+
+    private static final List<GuardedCall> GUARDED_CALLS = List.of(
+            new GuardedCall(Opcode.INVOKEVIRTUAL, "java/net/Socket", "connect", "(Ljava/net/SocketAddress;)V",
+                    "socketConnect", "(Ljava/net/Socket;Ljava/net/SocketAddress;)V"),
+            new GuardedCall(Opcode.INVOKEVIRTUAL, "java/net/Socket", "connect", "(Ljava/net/SocketAddress;I)V",
+                    "socketConnectTimeout", "(Ljava/net/Socket;Ljava/net/SocketAddress;I)V"),
+            new GuardedCall(Opcode.INVOKEVIRTUAL, "java/net/ServerSocket", "bind", "(Ljava/net/SocketAddress;)V",
+                    "serverSocketBind", "(Ljava/net/ServerSocket;Ljava/net/SocketAddress;)V"),
+            new GuardedCall(Opcode.INVOKEVIRTUAL, "java/net/ServerSocket", "bind", "(Ljava/net/SocketAddress;I)V",
+                    "serverSocketBindBacklog", "(Ljava/net/ServerSocket;Ljava/net/SocketAddress;I)V"),
+            new GuardedCall(Opcode.INVOKEVIRTUAL, "java/lang/ProcessBuilder", "start", "()Ljava/lang/Process;",
+                    "processBuilderStart", "(Ljava/lang/ProcessBuilder;)Ljava/lang/Process;"),
+            new GuardedCall(Opcode.INVOKEVIRTUAL, "java/lang/Runtime", "exit", "(I)V",
+                    "runtimeExit", "(Ljava/lang/Runtime;I)V"),
+            new GuardedCall(Opcode.INVOKESTATIC, "java/lang/System", "exit", "(I)V",
+                    "systemExit", "(I)V"));
+
+    // Replaces guarded calls, all other elements are passed through
+    private static final CodeTransform REWRITE_CALLS = (codeBuilder, codeElement) -> {
+        if (codeElement instanceof InvokeInstruction invoke) {
+            GuardedCall guardedCall = guardedCall(invoke.owner().name(), invoke.name(), invoke.type());
+            if (guardedCall != null && guardedCall.opcode() == invoke.opcode()) {
+                codeBuilder.invokedynamic(guardedCall.check());
+                return;
+            }
+        }
+        codeBuilder.with(codeElement);
+    };
+
+    private MatildaCallSiteTransformer() {
+    }
+
+    /**
+     * Checks if a class is loaded by an application class loader, classes of the JDK are never rewritten
+     * @param loader - class loader that defines the class
+     * @param className - internal name of the class
+     * @return boolean - true iff the calls of the class should be rewritten
+     */
+    static boolean isApplicationClass(ClassLoader loader, String className) {
+        return loader != null && loader != ClassLoader.getPlatformClassLoader()
+                && className != null && !className.startsWith("org/matilda/");
+    }
+
+    /**
+     * Rewrites the guarded calls of an application class
+     * @param loader - class loader that defines the class, used to resolve the class hierarchy for stack maps
+     * @param classBytes - byte representation of the class
+     * @return byte[] - Transformed Class or null if the class does not call a guarded method
+     */
+    static byte[] processClass(ClassLoader loader, byte[] classBytes) {
+        ClassModel classModel = AgentMatilda.CLASS_FILE.parse(classBytes);
+        // The constant pool references every called method, most classes are skipped without looking at any code
+        if (!referencesGuardedCall(classModel)) {
+            return null;
+        }
+        // Debug information is kept as the stack traces of the application should not change
+        ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+                ClassHierarchyResolver.ofResourceParsing(loader).orElse(ClassHierarchyResolver.defaultResolver())));
+        return classFile.transform(classFile.parse(classBytes), ClassTransform.transformingMethodBodies(REWRITE_CALLS));
+    }
+
+    /**
+     * Scans the constant pool of a class for references of guarded methods
+     * @param classModel - class that is scanned
+     * @return boolean - true iff the class references at least one guarded method
+     */
+    private static boolean referencesGuardedCall(ClassModel classModel) {
+        for (PoolEntry entry : classModel.constantPool()) {
+            if (entry instanceof MethodRefEntry method
+                    && guardedCall(method.owner().name(), method.name(), method.type()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up a guarded method
+     * @return GuardedCall - guarded method or null if the method is not guarded
+     */
+    private static GuardedCall guardedCall(Utf8Entry owner, Utf8Entry name, Utf8Entry descriptor) {
+        for (GuardedCall guardedCall : GUARDED_CALLS) {
+            if (guardedCall.matches(owner, name, descriptor)) {
+                return guardedCall;
+            }
+        }
+        return null;
+    }
+}
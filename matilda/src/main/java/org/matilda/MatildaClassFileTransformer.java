@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.List;
+
+/**
+ * The single ClassFileTransformer of the agent, it is triggered for any class that is loaded or retransformed and
+ * dispatches to the transformers registered for the class. Classes without transformers are returned unmodified
+ * after a single lookup. The transformer is thread safe, classes may be loaded and retransformed concurrently.
+ *
+ * @see MatildaTransformerRegistry
+ */
+public final class MatildaClassFileTransformer implements ClassFileTransformer {
+    private final MatildaTransformerRegistry registry;
+    // true if guarded calls of application classes should be rewritten, see MatildaCallSiteTransformer
+    private final boolean callSiteInstrumentation;
+
+    public MatildaClassFileTransformer(MatildaTransformerRegistry registry) {
+        this(registry, false);
+    }
+
+    public MatildaClassFileTransformer(MatildaTransformerRegistry registry, boolean callSiteInstrumentation) {
+        this.registry = registry;
+        this.callSiteInstrumentation = callSiteInstrumentation;
+    }
+
+    /**
+     * Applies all transformers that are registered for the class
+     * @return byte[] - Transformed Class or null if it's not been transformed.
+     */
+    @Override
+    public byte[] transform(ClassLoader      loader,
+                            String           className,
+                            Class<?>         classBeingRedefined,
+                            ProtectionDomain protectionDomain,
+                            byte[]           classBytes) {
+        List<MatildaCodeTransformer> transformers = registry.lookup(className);
+        if (transformers == null) {
+            if (callSiteInstrumentation && MatildaCallSiteTransformer.isApplicationClass(loader, className)) {
+                long start = System.nanoTime();
+                byte[] transformedClass = MatildaCallSiteTransformer.processClass(loader, classBytes);
+                MatildaMBean.recordTransformation(System.nanoTime() - start, transformedClass != null);
+                return transformedClass;
+            }
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] transformedClass = classBytes;
+        for (MatildaCodeTransformer transformer : transformers) {
+            byte[] result = AgentMatilda.processClasses(transformedClass, transformer);
+            if (result != null) {
+                transformedClass = result;
+            }
+        }
+        MatildaMBean.recordTransformation(System.nanoTime() - start, transformedClass != classBytes);
+        return transformedClass == classBytes ? null : transformedClass;
+    }
+}
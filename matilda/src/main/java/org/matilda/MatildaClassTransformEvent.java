@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of a class transformation, the event is disabled by default and can be enabled in a recording
+ * e.g. -XX:StartFlightRecording:settings=profile,matilda.ClassTransform#enabled=true
+ * The class is only loaded if the jdk.jfr module is present.
+ */
+@Name("matilda.ClassTransform")
+@Label("Class Transform")
+@Category("Matilda")
+@Description("Transformation of a class by a MatildaCodeTransformer")
+@Enabled(false)
+@Threshold("0 ms")
+@StackTrace(false)
+final class MatildaClassTransformEvent extends Event {
+    @Label("Class Name")
+    String className;
+
+    @Label("Bytes In")
+    @DataAmount
+    int bytesIn;
+
+    @Label("Bytes Out")
+    @Description("Size of the transformed class, 0 if the class has not been transformed")
+    @DataAmount
+    int bytesOut;
+
+    /**
+     * Transforms a class and records the transformation
+     * @param classBytes - byte representation of the class that should be tranformed
+     * @param transformer - Transformer that should be used
+     * @return byte[] - Transformed Class or null if it's not been transformed.
+     */
+    static byte[] recordTransformation(byte[] classBytes, MatildaCodeTransformer transformer) {
+        MatildaClassTransformEvent event = new MatildaClassTransformEvent();
+        event.begin();
+        byte[] transformedClass = AgentMatilda.applyTransformer(classBytes, transformer);
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = transformer.getTargetClass();
+            event.bytesIn = classBytes.length;
+            event.bytesOut = transformedClass == null ? 0 : transformedClass.length;
+            event.commit();
+        }
+        return transformedClass;
+    }
+}
@@ -16,29 +16,120 @@
  */
 package org.matilda;
 
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.CodeElement;
 import java.lang.classfile.CodeTransform;
 import java.lang.classfile.MethodModel;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DynamicCallSiteDesc;
+import java.lang.constant.MethodTypeDesc;
 import java.util.function.Predicate;
 
 /**
  *
  * Custom interface to create customized ClassTransformer
+ * Implementations must be stateless, a single instance instruments any number of methods and classes, concurrently
+ * from parallel class loading threads and across repeated retransformations.
  * @author Elina Eickstaedt
  *
  */
 @SuppressWarnings("preview")
 public interface MatildaCodeTransformer {
 
+    /**
+     * Internal name of the class that is instrumented by the transformer e.g. java/net/Socket, the transformer is
+     * registered for this class in the {@link MatildaTransformerRegistry}
+     */
+    String getTargetClass();
+
     /**
      * Matches CodeElement (Instruction) against elements specific to the java.net.Socket connect() and returns true accordingly
      * A CodeModel describes a Code attribute; we can iterate over its CodeElements and handle those that
      * include symbolic references to other types (JEP466)
+     * The predicate is tested against every method of every loaded class, it needs to compare the Utf8 entries of the
+     * method in place with equalsString so that testing a method does not allocate
      **/
     Predicate<MethodModel> getModelPredicate();
 
 
     /**
-     * Transforms a class that test positive for the TransformPredicate
+     * Transforms a class that test positive for the TransformPredicate, the transform is applied to each matching
+     * method body and injects its check at the entry point of the method
      */
     CodeTransform getTransform();
+
+    /**
+     * Describes the invokedynamic permission check that is injected into an instrumented method. The call site is
+     * bootstrapped by MatildaCallSites and linked to the given entry point of MatildaAccessControl
+     * @param entryPoint - name of the operation specific entry point e.g. checkSocketConnect
+     * @return DynamicCallSiteDesc - call site of the check
+     */
+    static DynamicCallSiteDesc permissionCheck(String entryPoint) {
+        // method descriptor is set V indicates that the method returns no value
+        return permissionCheck(entryPoint, MethodTypeDesc.ofDescriptor("()V"));
+    }
+
+    /**
+     * Describes an invokedynamic permission check that takes arguments of the instrumented method, the arguments need
+     * to be loaded onto the operand stack before the check
+     * @param entryPoint - name of the operation specific entry point e.g. checkSocketConnect
+     * @param type - type of the entry point e.g. (Ljava/net/SocketAddress;)V
+     * @return DynamicCallSiteDesc - call site of the check
+     */
+    static DynamicCallSiteDesc permissionCheck(String entryPoint, MethodTypeDesc type) {
+        // Needs to be hard coded in order to not run into classpath issues when using MatildaCallSites, as it is not loaded yet
+        var callSites = ClassDesc.of("org.matilda.bootstrap.MatildaCallSites");
+        var bootstrap = ConstantDescs.ofCallsiteBootstrap(callSites, "bootstrap", ConstantDescs.CD_CallSite);
+        return DynamicCallSiteDesc.of(bootstrap, entryPoint, type);
+    }
+
+    /**
+     * Creates the transform of a network method, the check is injected at the entry point of the method, before its
+     * first instruction, and is passed the endpoint that needs to be the first argument of the method
+     * @param entryPoint - name of the operation specific entry point, checkSocketConnect or checkServerSocketBind
+     * @return CodeTransform - stateless transform that is shared by all methods and classes that are instrumented
+     */
+    static CodeTransform endpointCheck(String entryPoint) {
+        return argumentCheck(entryPoint, 1, "(Ljava/net/SocketAddress;)V");
+    }
+
+    /**
+     * Creates the transform of a method whose check is passed one of its arguments, the check is injected at the
+     * entry point of the method, before its first instruction
+     * @param entryPoint - name of the operation specific entry point e.g. checkFileOpen
+     * @param slot - local variable slot of the argument, 0 is the first argument of a static method
+     * @param type - descriptor of the entry point e.g. (Ljava/nio/file/Path;)V
+     * @return CodeTransform - stateless transform that is shared by all methods and classes that are instrumented
+     */
+    static CodeTransform argumentCheck(String entryPoint, int slot, String type) {
+        return argumentsCheck(entryPoint, type, slot);
+    }
+
+    /**
+     * Creates the transform of a method whose check is passed several of its arguments, they are passed in the order
+     * of their slots, the check is injected at the entry point of the method, before its first instruction
+     * @param entryPoint - name of the operation specific entry point e.g. checkDatagramSend
+     * @param type - descriptor of the entry point e.g. (Ljava/nio/channels/DatagramChannel;Ljava/net/SocketAddress;)V
+     * @param slots - local variable slots of the arguments, 0 is the instance of a virtual method
+     * @return CodeTransform - stateless transform that is shared by all methods and classes that are instrumented
+     */
+    static CodeTransform argumentsCheck(String entryPoint, String type, int... slots) {
+        DynamicCallSiteDesc check = permissionCheck(entryPoint, MethodTypeDesc.ofDescriptor(type));
+        int[] loadedSlots = slots.clone();
+        return new CodeTransform() {
+            @Override
+            public void atStart(CodeBuilder codeBuilder) {
+                for (int slot : loadedSlots) {
+                    codeBuilder.aload(slot);
+                }
+                codeBuilder.invokedynamic(check);
+            }
+
+            @Override
+            public void accept(CodeBuilder codeBuilder, CodeElement codeElement) {
+                codeBuilder.with(codeElement);
+            }
+        };
+    }
 }
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * MBean of the agent, the transformation metrics are counted by the agent and the check metrics are read from the
+ * MatildaMetrics of the bootstrap jar. The bootstrap classes are loaded by the bootstrap class loader, they are
+ * therefore looked up by name and only exchange JDK types with the agent.
+ */
+public final class MatildaMBean implements MatildaMXBean {
+    static final String OBJECT_NAME = "org.matilda:type=Matilda";
+    // Striped counters, transformations run concurrently on all threads that load classes
+    private static final LongAdder PROCESSED_CLASSES = new LongAdder();
+    private static final LongAdder TRANSFORMED_CLASSES = new LongAdder();
+    private static final LongAdder TRANSFORMATION_NANOS = new LongAdder();
+    private final MethodHandle allowedChecks;
+    private final MethodHandle deniedChecks;
+    private final MethodHandle checkLatencies;
+
+    private MatildaMBean(Class<?> metrics) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        this.allowedChecks = lookup.findStatic(metrics, "allowedChecks", MethodType.methodType(Map.class));
+        this.deniedChecks = lookup.findStatic(metrics, "deniedChecks", MethodType.methodType(Map.class));
+        this.checkLatencies = lookup.findStatic(metrics, "checkLatencies", MethodType.methodType(Map.class));
+    }
+
+    /**
+     * Registers the MBean in the platform MBeanServer, needs to be called after the bootstrap jar has been appended
+     * @throws ReflectiveOperationException - if the metrics of the bootstrap jar can't be found
+     * @throws JMException - if the MBean can't be registered
+     */
+    static void register() throws ReflectiveOperationException, JMException {
+        Class<?> metrics = Class.forName("org.matilda.bootstrap.MatildaMetrics", true, null);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MatildaMBean(metrics), new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Counts a class that has been passed to the transformers
+     * @param nanos - time spent in the transformers
+     * @param transformed - true iff the class has been changed
+     */
+    static void recordTransformation(long nanos, boolean transformed) {
+        PROCESSED_CLASSES.increment();
+        if (transformed) {
+            TRANSFORMED_CLASSES.increment();
+        }
+        TRANSFORMATION_NANOS.add(nanos);
+    }
+
+    @Override
+    public Map<String, Long> getAllowedChecks() {
+        return snapshot(allowedChecks);
+    }
+
+    @Override
+    public Map<String, Long> getDeniedChecks() {
+        return snapshot(deniedChecks);
+    }
+
+    @Override
+    public Map<String, long[]> getCheckLatencies() {
+        return snapshot(checkLatencies);
+    }
+
+    @Override
+    public long getProcessedClasses() {
+        return PROCESSED_CLASSES.sum();
+    }
+
+    @Override
+    public long getTransformedClasses() {
+        return TRANSFORMED_CLASSES.sum();
+    }
+
+    @Override
+    public long getTransformationTime() {
+        return TRANSFORMATION_NANOS.sum();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Map<String, V> snapshot(MethodHandle metric) {
+        try {
+            return (Map<String, V>) metric.invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Metrics can't be read", e);
+        }
+    }
+}
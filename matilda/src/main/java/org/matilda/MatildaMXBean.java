@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.util.Map;
+
+/**
+ * Management interface of Matilda, registered by the agent as org.matilda:type=Matilda in the platform MBeanServer
+ */
+public interface MatildaMXBean {
+
+    /**
+     * @return Map - number of allowed checks keyed by "module::operation"
+     */
+    Map<String, Long> getAllowedChecks();
+
+    /**
+     * @return Map - number of denied checks keyed by "module::operation"
+     */
+    Map<String, Long> getDeniedChecks();
+
+    /**
+     * @return Map - latency histogram per operation, bucket n counts the checks that took 2^(n-1) up to 2^n - 1
+     * nanoseconds
+     */
+    Map<String, long[]> getCheckLatencies();
+
+    /**
+     * @return long - number of classes that have been passed to a transformer
+     */
+    long getProcessedClasses();
+
+    /**
+     * @return long - number of classes that have been changed by a transformer
+     */
+    long getTransformedClasses();
+
+    /**
+     * @return long - total time spent in transformers in nanoseconds
+     */
+    long getTransformationTime();
+}
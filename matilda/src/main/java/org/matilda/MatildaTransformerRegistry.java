@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the transformers of the agent, indexed by the internal name of the class they instrument.
+ * Looking up a class takes a single hash lookup no matter how many transformers are registered.
+ * The registry is populated before it is handed to the {@link MatildaClassFileTransformer} and only read afterwards.
+ *
+ * @see MatildaCodeTransformer#getTargetClass()
+ */
+public final class MatildaTransformerRegistry {
+    // Transformers are stateless, a single instance instruments all classes
+    private final Map<String, List<MatildaCodeTransformer>> transformers = new HashMap<>();
+
+    /**
+     * Creates a registry with the transformers shipped with Matilda
+     * @return MatildaTransformerRegistry - registry with the default transformers
+     */
+    public static MatildaTransformerRegistry withDefaults() {
+        var registry = new MatildaTransformerRegistry();
+        registry.register(new SystemExitTransformer());
+        registry.register(new SystemExecTransformer());
+        registry.register(new NetworkSocketTransformer());
+        registry.register(new ServerSocketTransformer());
+        registry.register(new SocketChannelTransformer());
+        registry.register(new ServerSocketChannelTransformer());
+        registry.register(new DatagramChannelConnectTransformer());
+        registry.register(new DatagramChannelBindTransformer());
+        registry.register(new DatagramChannelSendTransformer());
+        registry.register(new AsynchronousSocketChannelTransformer());
+        registry.register(new AsynchronousServerSocketChannelTransformer());
+        return registry;
+    }
+
+    /**
+     * Registers the transformers of file opens, they are only installed with -Dmatilda.file.open.instrumentation=true as
+     * files are opened far more often than the other guarded operations are called
+     * @return MatildaTransformerRegistry - this registry
+     */
+    public MatildaTransformerRegistry withFileOpens() {
+        register(new FileInputStreamTransformer());
+        register(new FileOutputStreamTransformer());
+        // Files and FileChannel open their files with the provider of the default file system
+        for (String provider : FileSystemProviderTransformer.DEFAULT_PROVIDERS) {
+            register(new FileSystemProviderTransformer(provider));
+            register(new FileSystemProviderCopyTransformer(provider));
+        }
+        return this;
+    }
+
+    /**
+     * Registers a transformer for the class it instruments
+     * @param transformer - stateless transformer that is shared by all transformations of the class
+     */
+    void register(MatildaCodeTransformer transformer) {
+        transformers.computeIfAbsent(transformer.getTargetClass(), key -> new ArrayList<>()).add(transformer);
+    }
+
+    /**
+     * Looks up the transformers of a class
+     * @param className - internal name of the class e.g. java/net/Socket, null for hidden classes
+     * @return List - transformers that instrument the class or null if there are none
+     */
+    List<MatildaCodeTransformer> lookup(String className) {
+        return className == null ? null : transformers.get(className);
+    }
+
+    /**
+     * Collects the classes with registered transformers that have been loaded before the agent was started,
+     * e.g. java.lang.Runtime, they need to be retransformed
+     * @param inst - instrumentation of the agent
+     * @return Class[] - loaded classes that need to be retransformed
+     */
+    Class<?>[] loadedTargetClasses(Instrumentation inst) {
+        List<Class<?>> loaded = new ArrayList<>();
+        for (Class<?> loadedClass : inst.getAllLoadedClasses()) {
+            if (transformers.containsKey(loadedClass.getName().replace('.', '/'))
+                    && inst.isModifiableClass(loadedClass)) {
+                loaded.add(loadedClass);
+            }
+        }
+        return loaded.toArray(new Class<?>[0]);
+    }
+}
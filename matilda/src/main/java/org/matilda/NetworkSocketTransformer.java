@@ -18,9 +18,6 @@ package org.matilda;
 
 import java.lang.classfile.CodeTransform;
 import java.lang.classfile.MethodModel;
-import java.lang.constant.ClassDesc;
-import java.lang.constant.MethodTypeDesc;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
 /**
@@ -28,28 +25,24 @@ import java.util.function.Predicate;
  */
 @SuppressWarnings("preview")
 public class NetworkSocketTransformer implements MatildaCodeTransformer{
-    // Boolean indicates if a transformation has been run
-    private final AtomicBoolean hasRun = new AtomicBoolean(false);
+    // Transform is stateless, it is shared by all methods and classes that are instrumented
+    // the check is passed the endpoint the socket connects to
+    private static final CodeTransform TRANSFORM = MatildaCodeTransformer.endpointCheck("checkSocketConnect");
+
+    /**
+     * Instruments java.net.Socket
+     */
+    @Override
+    public String getTargetClass() {
+        return "java/net/Socket";
+    }
 
     /**
      * Transforms a class that test positive for the TransformPredicate
      */
     @Override
     public CodeTransform getTransform() {
-        return (codeBuilder, codeElement) -> {
-            if (!hasRun.getAndSet(true)) { // this must only be run / added once on top of the method
-                var accessControl = ClassDesc.of("org.matilda.bootstrap.MatildaAccessControl");
-                var methodTypeDesc = MethodTypeDesc.ofDescriptor("(Ljava/lang/String;)V");
-
-                codeBuilder
-                        // Needs to be hard coded in order to not run into classpath issues when using MatildaAccessControl, as it is not loaded yet
-                        .ldc("Socket.connect")
-                        .invokestatic(accessControl, "checkPermission", methodTypeDesc)
-                        .with(codeElement);
-            } else {
-                codeBuilder.with(codeElement);
-            }
-        };
+        return TRANSFORM;
     }
 
 
@@ -66,16 +59,14 @@ public class NetworkSocketTransformer implements MatildaCodeTransformer{
      */
     @Override
     public Predicate<MethodModel> getModelPredicate() {
-        return methodElements -> {
-            // Get class method is an element of
-            String internalName = methodElements.parent().get().thisClass().asInternalName();
-            // Check if its parent is the Socket Class
-            return internalName.equals("java/net/Socket")
-                    // Matches Methode
-                    && "connect".equals(methodElements.methodName().stringValue())
-                    // Matches Method Type
-                    && "(Ljava/net/SocketAddress;)V".equals(methodElements.methodType().stringValue());
-        };
+        return methodElements ->
+                // Matches Methode
+                methodElements.methodName().equalsString("connect")
+                // Matches Method Type
+                // connect(SocketAddress) connects through connect(SocketAddress, int), both are checked here
+                && methodElements.methodType().equalsString("(Ljava/net/SocketAddress;I)V")
+                // Check if its parent is the Socket Class
+                && methodElements.parent().get().thisClass().name().equalsString("java/net/Socket");
     }
 
 }
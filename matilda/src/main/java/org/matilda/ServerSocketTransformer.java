@@ -20,9 +20,6 @@ package org.matilda;
 
 import java.lang.classfile.CodeTransform;
 import java.lang.classfile.MethodModel;
-import java.lang.constant.ClassDesc;
-import java.lang.constant.MethodTypeDesc;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
 /**
@@ -30,8 +27,17 @@ import java.util.function.Predicate;
  */
 
 public class ServerSocketTransformer implements MatildaCodeTransformer{
-    // Boolean indicates if a transformation has been run
-    private final AtomicBoolean hasRun = new AtomicBoolean(false);
+    // Transform is stateless, it is shared by all methods and classes that are instrumented
+    // the check is passed the local address the socket binds to
+    private static final CodeTransform TRANSFORM = MatildaCodeTransformer.endpointCheck("checkServerSocketBind");
+
+    /**
+     * Instruments java.net.ServerSocket
+     */
+    @Override
+    public String getTargetClass() {
+        return "java/net/ServerSocket";
+    }
 
     /**
      * Matches MethodeElement against characteristics specific to the java.net.Socket connect() and returns true accordingly
@@ -46,18 +52,13 @@ public class ServerSocketTransformer implements MatildaCodeTransformer{
 
     @Override
     public Predicate<MethodModel> getModelPredicate() {
-        return methodElements -> {
-            // Get class method is an element of
-            String internalName = methodElements.parent().get().thisClass().asInternalName();
-            // Check if its parent is the ServerSocket Class
-            var retval = internalName.equals("java/net/ServerSocket")
-                    // Matches Methode
-                    && "bind".equals(methodElements.methodName().stringValue())
-                    // Matches Method Type
-                    && "(Ljava/net/SocketAddress;I)V".equals(methodElements.methodType().stringValue());
-
-            return retval;
-        };
+        return methodElements ->
+                // Matches Methode
+                methodElements.methodName().equalsString("bind")
+                // Matches Method Type
+                && methodElements.methodType().equalsString("(Ljava/net/SocketAddress;I)V")
+                // Check if its parent is the ServerSocket Class
+                && methodElements.parent().get().thisClass().name().equalsString("java/net/ServerSocket");
     }
 
 
@@ -66,19 +67,6 @@ public class ServerSocketTransformer implements MatildaCodeTransformer{
      */
     @Override
     public CodeTransform getTransform() {
-        return (codeBuilder, codeElement) -> {
-            if (!hasRun.getAndSet(true)) { // this must only be run / added once on top of the method
-                var accessControl = ClassDesc.of("org.matilda.bootstrap.MatildaAccessControl");
-                var methodTypeDesc = MethodTypeDesc.ofDescriptor("(Ljava/lang/String;)V");
-
-                codeBuilder
-                        // Needs to be hard coded in order to not run into classpath issues when using MatildaAccessControl, as it is not loaded yet
-                        .ldc("ServerSocket.bind")
-                        .invokestatic(accessControl, "checkPermission", methodTypeDesc)
-                        .with(codeElement);
-            } else {
-                codeBuilder.with(codeElement);
-            }
-        };
+        return TRANSFORM;
     }
 }
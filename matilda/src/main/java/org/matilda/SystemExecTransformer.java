@@ -16,11 +16,12 @@
  */
 package org.matilda;
 
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.CodeElement;
 import java.lang.classfile.CodeTransform;
 import java.lang.classfile.MethodModel;
-import java.lang.constant.ClassDesc;
+import java.lang.constant.DynamicCallSiteDesc;
 import java.lang.constant.MethodTypeDesc;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
 
@@ -29,29 +30,41 @@ import java.util.function.Predicate;
  */
 @SuppressWarnings("preview")
 public class SystemExecTransformer implements MatildaCodeTransformer {
-    // Boolean indicates if a transformation has been run
-    private final AtomicBoolean hasRun = new AtomicBoolean(false);
+    private static final DynamicCallSiteDesc CHECK = MatildaCodeTransformer.permissionCheck("checkProcessBuilderStart",
+            MethodTypeDesc.ofDescriptor("([Ljava/lang/String;)V"));
+    // Transform is stateless, it is shared by all methods and classes that are instrumented
+    private static final CodeTransform TRANSFORM = new CodeTransform() {
+        /**
+         * Injects the check at the entry point of the method, before its first instruction, the command array is
+         * passed to check the command. ProcessBuilder.start passes a copy of its command, unlike the command of the
+         * process builder it can't be changed by another thread after the check.
+         */
+        @Override
+        public void atStart(CodeBuilder codeBuilder) {
+            codeBuilder.aload(0);
+            codeBuilder.invokedynamic(CHECK);
+        }
+
+        @Override
+        public void accept(CodeBuilder codeBuilder, CodeElement codeElement) {
+            codeBuilder.with(codeElement);
+        }
+    };
+
+    /**
+     * Instruments java.lang.ProcessImpl, every process started by a ProcessBuilder or Runtime.exec is started by it
+     */
+    @Override
+    public String getTargetClass() {
+        return "java/lang/ProcessImpl";
+    }
 
     /**
      * Transforms a class that test positive for the TransformPredicate*
      */
     @Override
     public CodeTransform getTransform() {
-        return (codeBuilder, codeElement) -> {
-            // checks if codeELement needs to be transformed
-            if (!hasRun.getAndSet(true)) { // this must only be run / added once on top of the method
-                var accessControl = ClassDesc.of("org.matilda.bootstrap.MatildaAccessControl");
-                // method descriptor is set V indicates that the method returns no value
-                var methodTypeDesc = MethodTypeDesc.ofDescriptor("(Ljava/lang/String;)V");
-                codeBuilder
-                        // Needs to be hard coded in order to not run into classpath issues when using MatildaAccessControl, as it is not loaded yet
-                        .ldc("ProcessBuilder.start")
-                        .invokestatic(accessControl, "checkPermission", methodTypeDesc)
-                        .with(codeElement);
-            } else {
-                codeBuilder.with(codeElement);
-            }
-        };
+        return TRANSFORM;
     }
 
     /**
@@ -60,21 +73,19 @@ public class SystemExecTransformer implements MatildaCodeTransformer {
      *
      * @return Predicate - Holds structure of method that should be transformed
      * Gets the method owner/ class method is an element of
-     * as we are looking for methods owned by "java/lang/ProcessBuilder" we check for the owner
+     * as we are looking for methods owned by "java/lang/ProcessImpl" we check for the owner
      * check if method that is called is the connect method
      * check if method has the correct method descriptor
      */
     @Override
     public Predicate<MethodModel> getModelPredicate() {
-        return methodElements -> {
-            // Get class method is an element of
-            String internalName = methodElements.parent().get().thisClass().asInternalName();
-            // Check if its parent is the ProcessBuilder Class
-            return internalName.equals("java/lang/ProcessBuilder")
-                    // Matches Methode
-                    && "start".equals(methodElements.methodName().stringValue())
-                    // Matches Methode Type
-                    && "([Ljava/lang/ProcessBuilder$Redirect;)Ljava/lang/Process;".equals(methodElements.methodType().stringValue());
-        };
+        return methodElements ->
+                // Matches Methode
+                methodElements.methodName().equalsString("start")
+                // Matches Method Type
+                && methodElements.methodType().equalsString(
+                        "([Ljava/lang/String;Ljava/util/Map;Ljava/lang/String;[Ljava/lang/ProcessBuilder$Redirect;Z)Ljava/lang/Process;")
+                // Check if its parent is the ProcessImpl Class
+                && methodElements.parent().get().thisClass().name().equalsString("java/lang/ProcessImpl");
     }
 }
@@ -16,11 +16,10 @@
  */
 package org.matilda;
 
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.CodeElement;
 import java.lang.classfile.CodeTransform;
 import java.lang.classfile.MethodModel;
-import java.lang.constant.ClassDesc;
-import java.lang.constant.MethodTypeDesc;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
 
@@ -29,27 +28,37 @@ import java.util.function.Predicate;
  */
 @SuppressWarnings("preview")
 public class SystemExitTransformer implements MatildaCodeTransformer {
-    // Boolean indicates if a transformation has been run
-    private final AtomicBoolean hasRun = new AtomicBoolean(false);
+    // Transform is stateless, it is shared by all methods and classes that are instrumented
+    private static final CodeTransform TRANSFORM = new CodeTransform() {
+        /**
+         * Injects the check at the entry point of the method, before its first instruction
+         */
+        @Override
+        public void atStart(CodeBuilder codeBuilder) {
+            codeBuilder.invokedynamic(MatildaCodeTransformer.permissionCheck("checkRuntimeExit"));
+        }
+
+        @Override
+        public void accept(CodeBuilder codeBuilder, CodeElement codeElement) {
+            codeBuilder.with(codeElement);
+        }
+    };
+
+    /**
+     * Instruments java.lang.Runtime
+     */
+    @Override
+    public String getTargetClass() {
+        return "java/lang/Runtime";
+    }
+
     /**
      * Transforms a class that test positive for the TransformPredicate
      */
     @Override
     public CodeTransform getTransform() {
-        return (codeBuilder, codeElement) -> {
-            if (!hasRun.getAndSet(true)) { // this must only be run / added once on top of the method
-                var accessControl = ClassDesc.of("org.matilda.bootstrap.MatildaAccessControl");
-                    var methodTypeDesc = MethodTypeDesc.ofDescriptor("(Ljava/lang/String;)V");
-                    codeBuilder
-                            // Needs to be hard coded in order to not run into classpath issues when using MatildaAccessControl, as it is not loaded yet
-                            .ldc("Runtime.exit")
-                            .invokestatic(accessControl, "checkPermission", methodTypeDesc)
-                            .with(codeElement);
-                } else {
-                    codeBuilder.with(codeElement);
-                }
-            };
-        }
+        return TRANSFORM;
+    }
 
 
     /**
@@ -64,16 +73,13 @@ public class SystemExitTransformer implements MatildaCodeTransformer {
      */
     @Override
     public Predicate<MethodModel> getModelPredicate() {
-        return methodElements -> {
-            // Get class method is an element of
-            String internalName = methodElements.parent().get().thisClass().asInternalName();
-            // Check if its parent is the Runtime class
-                return internalName.equals("java/lang/Runtime")
-                        // Matches Methode
-                    && "exit".equals(methodElements.methodName().stringValue())
-                        // Matches Methode Type
-                    && "(I)V".equals(methodElements.methodType().stringValue());
-        };
+        return methodElements ->
+                // Matches Methode
+                methodElements.methodName().equalsString("exit")
+                // Matches Method Type
+                && methodElements.methodType().equalsString("(I)V")
+                // Check if its parent is the Runtime class
+                && methodElements.parent().get().thisClass().name().equalsString("java/lang/Runtime");
     }
 }
 
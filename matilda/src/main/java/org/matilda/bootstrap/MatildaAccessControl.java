@@ -17,13 +17,21 @@
 
 package org.matilda.bootstrap;
 
-import java.util.Optional;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 /**
@@ -37,16 +45,41 @@ import java.util.regex.Pattern;
 // Class is final for security reasons, to supress any manipulation
 public final class MatildaAccessControl {
     // TODO implement option that spare the need of using the module prefix
-    // TODO: replace the Allowed modules with a simple check for "java.base"
     // TODO: Fix, potential circular dependency
-    // List of System.class Modules, only Modules that are of interest
-    private static final Set<Module> ALLOWED_MODULES = Set.of(System.class.getModule());
-    private static final MatildaAccessControl INSTANCE = new MatildaAccessControl(System.getProperties());
-    private final Set<String> systemExitAllowPermissions;
-    private final Set<String> systemExecAllowPermissions;
-    private final Set<String> networkConnectAllowPermissions;
-    private final Set<String> serverSocketBindAllowPermissions;
+    // Platform modules of the boot layer, their frames are skipped when looking for the calling module
+    private static final Set<Module> PLATFORM_MODULES = platformModules();
+    // Number of frames the shared walker fetches in its first batch, most callers are found within these frames
+    private static final int ESTIMATED_CALLER_DEPTH = 8;
+    // Walker is immutable and thread safe, it is shared by all checks
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance(
+            Set.of(StackWalker.Option.RETAIN_CLASS_REFERENCE), ESTIMATED_CALLER_DEPTH);
+    // Guarded calls of application classes are checked at the call site, see MatildaCallerChecks
+    private static final boolean CALL_SITE_INSTRUMENTATION = Boolean.getBoolean("matilda.callsite.instrumentation");
+    // Checks are recorded as flight recorder events if the jdk.jfr module is present, see MatildaPermissionCheckEvent
+    private static final boolean FLIGHT_RECORDER = ModuleLayer.boot() != null
+            && ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+    // Checks are counted and timed if enabled, see MatildaMetrics
+    private static final boolean METRICS = Boolean.getBoolean("matilda.metrics");
+    // Operation that has been checked at the call site and is about to be executed by the current thread
+    private static final ThreadLocal<VerifiedOperation> VERIFIED_OPERATION = ThreadLocal.withInitial(VerifiedOperation::new);
+    // Operation codes of the guarded methods, one entry point per operation is called by the instrumented methods
+    static final int RUNTIME_EXIT = 0;
+    static final int PROCESS_BUILDER_START = 1;
+    static final int SOCKET_CONNECT = 2;
+    static final int SERVER_SOCKET_BIND = 3;
+    static final int FILE_OPEN = 4;
+    // Module of Matilda itself, it opens its policy, audit and learning files without being checked
+    private static final Module MATILDA_MODULE = MatildaAccessControl.class.getModule();
+    // Audit log of all checks, null if auditing is not enabled
+    private static final MatildaAuditLog AUDIT_LOG = MatildaAuditLog.getInstance();
+    // Records the calling modules instead of enforcing the policy, null if learning mode is not enabled
+    private static final MatildaPolicyLearner POLICY_LEARNER = MatildaPolicyLearner.getInstance();
+    // Initialized before the instance, creating the instance logs
     private static final Logger logger = Logger.getLogger(MatildaAccessControl.class.getName());
+    // Needs to be initialized after the other fields, creating the instance reads them
+    private static final MatildaAccessControl INSTANCE = createInstance();
+    // Compiled configuration, published as a whole so checks never see a partially built configuration
+    private volatile MatildaConfiguration configuration;
 
     /**
      * Creates and returns a single instances of MatildaAccessControl using the singleton pattern,
@@ -64,41 +97,77 @@ public final class MatildaAccessControl {
      * @param properties - Properties should be passed via System.properties => matilda.runtime.exit.allow=Module that should be allowed
      */
     public MatildaAccessControl(Properties properties) {
-        // validates syntax correctness of property configuration
-        for(Object elem:properties.keySet()){
-            if(elem instanceof String){
-                String key = elem.toString();
-                if (key.startsWith("matilda.")){
-                    switch (key){
-                        case "matilda.runtime.exit.allow":
-                        case "matilda.system.exec.allow":
-                        case "matilda.network.connect.allow":
-                        case "matilda.server.bind.allow":
-                        case "matilda.bootstrap.jar":
-                            break;
-                        default: throw new IllegalArgumentException(elem + " is not a valid key. Allowed keys are: matilda.runtime.exit.allow, matilda.system.exec.allow,matilda.network.connect.allow");
-                    }
-                }
+        MatildaRules.validatePropertyKeys(properties);
+        String policyFile = properties.getProperty("matilda.policy.file");
+        if (policyFile == null) {
+            this.configuration = MatildaConfiguration.of(compilePolicy(properties), properties);
+        } else {
+            try {
+                this.configuration = loadConfiguration(Path.of(policyFile));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Policy file " + policyFile + " can't be read", e);
             }
+        }
+    }
 
+    /**
+     * Creates the instance configured via the commandline, the policy file is watched if one is configured
+     * @return MatildaAccessControl - Instances that is used to do access control
+     */
+    private static MatildaAccessControl createInstance() {
+        MatildaAccessControl accessControl = new MatildaAccessControl(System.getProperties());
+        String policyFile = System.getProperty("matilda.policy.file");
+        if (policyFile != null) {
+            MatildaPolicyWatcher.watch(Path.of(policyFile), accessControl);
+        }
+        return accessControl;
+    }
+
+    /**
+     * Loads a policy file, compiled policies written by {@link MatildaPolicyCompiler} are loaded without parsing
+     * any rule, any other file is loaded as properties. All rules are taken from the file, the rules of the commandline
+     * don't apply.
+     * @param policyFile - path of the policy file
+     * @return MatildaConfiguration - loaded configuration
+     * @throws IOException - if the file can't be read
+     */
+    private static MatildaConfiguration loadConfiguration(Path policyFile) throws IOException {
+        if (MatildaCompiledPolicy.isCompiledPolicy(policyFile)) {
+            MatildaCompiledPolicy compiledPolicy = MatildaCompiledPolicy.load(policyFile);
+            Properties properties = compiledPolicy.properties();
+            MatildaRules.validatePolicyFileKeys(properties, policyFile);
+            return MatildaConfiguration.of(MatildaGeneratedPolicy.generate(compiledPolicy), properties);
         }
-        // Initialization of method specific properties
-        String systemExistAllow = properties.getProperty("matilda.runtime.exit.allow", "");
-        String systemExecAllow = properties.getProperty("matilda.system.exec.allow", "");
-        String networkConnectAllow = properties.getProperty("matilda.network.connect.allow", "");
-        String serverSocketBindAllow = properties.getProperty("matilda.server.bind.allow", "");
+        Properties properties = MatildaRules.loadPolicyFile(policyFile);
+        return MatildaConfiguration.of(compilePolicy(properties), properties);
+    }
 
+    /**
+     * Replaces the configuration with the content of the policy file, the permissions as well as the rate limits,
+     * endpoints, commands, paths and the handling of denials. The new configuration is compiled completely before it
+     * is published with a single volatile write, concurrent checks either see the previous or the new configuration.
+     * @param policyFile - path of the policy file
+     * @throws IOException - if the file can't be read
+     * @throws IllegalArgumentException - if the file contains an invalid configuration, the policy is not replaced
+     */
+    void reloadPolicy(Path policyFile) throws IOException {
+        MatildaConfiguration previous = this.configuration;
+        this.configuration = loadConfiguration(policyFile);
+        // the denials counted by the previous configuration are not summarized by the new one
+        previous.denials().logSummary();
+        if (this == INSTANCE) {
+            // operations that are allowed for every module may have changed
+            MatildaCallSites.relink(this);
+        }
+    }
 
-        // Loading and validation of set configuration
-        this.systemExitAllowPermissions = validateModuleConfig(
-                systemExistAllow.isEmpty()? Set.of() : Set.of(systemExistAllow.split(",")));
-        this.systemExecAllowPermissions = validateModuleConfig(
-                systemExecAllow.isEmpty()? Set.of() : Set.of(systemExecAllow.split(",")));
-        this.networkConnectAllowPermissions = validateModuleConfig(
-                networkConnectAllow.isEmpty() ? Set.of() : Set.of(networkConnectAllow.split(",")));
-        this.serverSocketBindAllowPermissions = validateModuleConfig(
-                serverSocketBindAllow.isEmpty() ? Set.of() : Set.of(serverSocketBindAllow.split(","))
-        );
+    /**
+     * Loads, validates and compiles the operation specific properties
+     * @param properties - Properties in the format of System.properties => matilda.runtime.exit.allow=Module that should be allowed
+     * @return MatildaPolicy - compiled policy
+     */
+    private static MatildaPolicy compilePolicy(Properties properties) {
+        return MatildaGeneratedPolicy.generate(new MatildaArrayPolicy(MatildaRules.policyRules(properties)));
     }
 
     /**
@@ -107,23 +176,237 @@ public final class MatildaAccessControl {
      * @return - Set of Strings that are valid configurations
      */
     public static Set<String> validateModuleConfig(Set<String> modules) {
-        Pattern pattern = Pattern.compile("module \\S+");
-        for (String moduleName : modules) {
-            Matcher matcher = pattern.matcher(moduleName);
-            if (!matcher.matches()){
-                throw new IllegalArgumentException("Not a valid module name: " + moduleName);
+        return MatildaRules.validateModuleConfig(modules);
+    }
+
+
+
+    /**
+     * Is called by Runtime.exit(int) that is instrumented by the agent, this is necessary to get the correct call stack
+     */
+    public static void checkRuntimeExit() {
+        if (consumeVerifiedOperation(RUNTIME_EXIT, null)) return;
+        INSTANCE.checkOperation(RUNTIME_EXIT, null);
+    }
+
+    /**
+     * Checks ProcessBuilder.start without knowing its command, modules with command rules are denied
+     */
+    public static void checkProcessBuilderStart() {
+        INSTANCE.checkOperation(PROCESS_BUILDER_START, null);
+    }
+
+    /**
+     * Is called by ProcessImpl.start(...) that is instrumented by the agent, this is necessary to get the correct
+     * call stack and the command that is started. ProcessBuilder.start passes a copy of its command that can't be
+     * changed by other threads anymore, the command that is checked is the command that is started.
+     * @param command - executable and arguments of the process that is started
+     */
+    public static void checkProcessBuilderStart(String[] command) {
+        if (consumeVerifiedOperation(PROCESS_BUILDER_START, command)) return;
+        INSTANCE.checkOperation(PROCESS_BUILDER_START, Arrays.asList(command));
+    }
+
+    /**
+     * Is called by the FileInputStream and FileOutputStream constructors that are instrumented by the agent with
+     * -Dmatilda.file.open.instrumentation=true, this is necessary to get the correct call stack and the opened file
+     * @param file - file that is opened
+     */
+    public static void checkFileOpen(File file) {
+        // files opened while the access control is initialized are opened by Matilda itself or the JDK
+        MatildaAccessControl accessControl = INSTANCE;
+        if (accessControl == null) return;
+        accessControl.checkOperation(FILE_OPEN, file);
+    }
+
+    /**
+     * Is called by the provider of the default file system that is instrumented by the agent with
+     * -Dmatilda.file.open.instrumentation=true, this is necessary to get the correct call stack and the opened file
+     * @param path - path of the file that is opened
+     */
+    public static void checkFileOpen(Path path) {
+        // files opened while the access control is initialized are opened by Matilda itself or the JDK
+        MatildaAccessControl accessControl = INSTANCE;
+        if (accessControl == null) return;
+        accessControl.checkOperation(FILE_OPEN, path);
+    }
+
+    /**
+     * Checks Socket.connect without knowing its endpoint, modules with endpoint rules are denied
+     */
+    public static void checkSocketConnect() {
+        INSTANCE.checkOperation(SOCKET_CONNECT, null);
+    }
+
+    /**
+     * Is called by Socket.connect(SocketAddress) that is instrumented by the agent, this is necessary to get the
+     * correct call stack
+     * @param endpoint - address the socket connects to
+     */
+    public static void checkSocketConnect(SocketAddress endpoint) {
+        if (consumeVerifiedOperation(SOCKET_CONNECT, endpoint)) return;
+        INSTANCE.checkOperation(SOCKET_CONNECT, endpoint);
+    }
+
+    /**
+     * Is called by DatagramChannel.send and the send of the DatagramSocket adaptor that are instrumented by the agent,
+     * a datagram that is sent without connecting the channel first is checked like a connect to its target. A
+     * connected channel only sends to its remote address, which has been checked by its connect.
+     * @param channel - channel that sends the datagram
+     * @param target - address the datagram is sent to
+     */
+    public static void checkDatagramSend(DatagramChannel channel, SocketAddress target) {
+        if (target == null || target.equals(remoteAddress(channel))) return;
+        INSTANCE.checkOperation(SOCKET_CONNECT, target);
+    }
+
+    /**
+     * Returns the remote address of a datagram channel
+     * @param channel - channel whose remote address is returned
+     * @return SocketAddress - remote address, null if the channel isn't connected or has been closed
+     */
+    private static SocketAddress remoteAddress(DatagramChannel channel) {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            // the send fails on the closed channel, the target is checked nevertheless
+            return null;
+        }
+    }
+
+    /**
+     * Checks ServerSocket.bind without knowing its endpoint, modules with endpoint rules are denied
+     */
+    public static void checkServerSocketBind() {
+        INSTANCE.checkOperation(SERVER_SOCKET_BIND, null);
+    }
+
+    /**
+     * Is called by ServerSocket.bind(SocketAddress, int) that is instrumented by the agent, this is necessary to get
+     * the correct call stack
+     * @param endpoint - local address the socket binds to, null for the wildcard address and an ephemeral port
+     */
+    public static void checkServerSocketBind(SocketAddress endpoint) {
+        if (consumeVerifiedOperation(SERVER_SOCKET_BIND, endpoint)) return;
+        INSTANCE.checkOperation(SERVER_SOCKET_BIND, bindEndpoint(endpoint));
+    }
+
+    /**
+     * Resolves the endpoint of a bind, null binds to the wildcard address and an ephemeral port
+     * @param endpoint - endpoint as passed to bind
+     * @return SocketAddress - endpoint the socket is bound to
+     */
+    static SocketAddress bindEndpoint(SocketAddress endpoint) {
+        return endpoint != null ? endpoint : new InetSocketAddress(0);
+    }
+
+    /**
+     * Checks the permission of an operation at the call site of an application class, the calling module is known
+     * and no stack walk is needed. The entry point of the guarded method still checks the operation unless it has
+     * been marked as verified with {@link #setVerifiedOperation(int, Object)}.
+     * @param operation - operation code of the guarded method
+     * @param callingModule - module of the class that calls the guarded method
+     * @param target - endpoint of a network operation, command of ProcessBuilder.start, null for all other operations
+     * @throws RuntimeException - if the calling module doesn't have the permissions to call the method
+     */
+    static void checkAtCallSite(int operation, Module callingModule, Object target) {
+        long start = METRICS ? System.nanoTime() : 0L;
+        try {
+            if (!FLIGHT_RECORDER) {
+                INSTANCE.checkOperation(operation, callingModule, target);
+            } else {
+                MatildaPermissionCheckEvent event = new MatildaPermissionCheckEvent();
+                event.begin();
+                boolean allowed = false;
+                try {
+                    INSTANCE.checkOperation(operation, callingModule, target);
+                    allowed = true;
+                } finally {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        commit(event, operation, callingModule, allowed, 0);
+                    }
+                }
+            }
+        } finally {
+            if (METRICS) {
+                MatildaMetrics.recordLatency(operation, System.nanoTime() - start);
             }
         }
-        return modules;
     }
 
+    /**
+     * Marks an operation that has been checked at the call site as verified for the current thread until
+     * {@link #clearVerifiedOperation()} is called. The entry point of the guarded method skips its check once, if it
+     * is called for the same operation and the identical target. Only calls of the JDK classes themselves may be
+     * marked, methods of subclasses can run code of their own before the entry point is reached.
+     * @param operation - operation code of the guarded method
+     * @param target - argument as the entry point receives it, the endpoint or the command, null for exits
+     */
+    static void setVerifiedOperation(int operation, Object target) {
+        VerifiedOperation verified = VERIFIED_OPERATION.get();
+        verified.operation = operation;
+        verified.target = target;
+    }
 
+    /**
+     * Clears the operation that has been verified at the call site, is called after the guarded method returned
+     */
+    static void clearVerifiedOperation() {
+        VerifiedOperation verified = VERIFIED_OPERATION.get();
+        verified.operation = -1;
+        verified.target = null;
+    }
 
     /**
-     * Is called by method that is instrumented by the agent, this is necessary to get the correct call stack
+     * Consumes an operation that has been verified at the call site, reflective and MethodHandle calls are never
+     * verified and fall back to the check of the entry point
+     * @param operation - operation code of the guarded method
+     * @param target - argument of the entry point, it needs to be identical to the target that has been verified
+     * @return boolean - true iff the operation has been verified at the call site for this target
+     */
+    private static boolean consumeVerifiedOperation(int operation, Object target) {
+        if (!CALL_SITE_INSTRUMENTATION) {
+            return false;
+        }
+        VerifiedOperation verified = VERIFIED_OPERATION.get();
+        if (verified.operation != operation || !isVerifiedTarget(verified.target, target)) {
+            return false;
+        }
+        verified.operation = -1;
+        verified.target = null;
+        return true;
+    }
+
+    /**
+     * Compares the target that has been verified at the call site with the target of the entry point. Endpoints are
+     * compared by identity, equals of an endpoint could be overridden by the calling code. Commands are copied by
+     * ProcessBuilder.start before they reach the entry point, they are compared by their strings.
+     * @param verified - target that has been verified at the call site
+     * @param target - argument of the entry point
+     * @return boolean - true iff the entry point is called for the verified target
+     */
+    private static boolean isVerifiedTarget(Object verified, Object target) {
+        if (verified instanceof String[] verifiedCommand && target instanceof String[] command) {
+            return Arrays.equals(verifiedCommand, command);
+        }
+        return verified == target;
+    }
+
+    /**
+     * Operation and target that have been verified at the call site, one instance per thread
+     */
+    private static final class VerifiedOperation {
+        // operation code of the verified operation, -1 if no operation is verified
+        private int operation = -1;
+        private Object target;
+    }
+
+    /**
+     * Checks the permission of a method by its name, the agent calls the operation specific entry points instead
      * @param method - method that should be checked for permissions
      */
-    public static void checkPermission(String method) { // seems unused since we inject this into the generated code
+    public static void checkPermission(String method) {
         // this is an indirection to simplify the code generated in the agent
         INSTANCE.checkPermissionInternal(method);
     }
@@ -138,79 +421,206 @@ public final class MatildaAccessControl {
         var callingModule = callingClassModule();
         switch (method) {
             case "Runtime.exit":
-                if (!checkSystemExit(callingModule)) {
-                    throw new RuntimeException("Runtime.exit not allowed for Module: " +  getModuleName(callingModule));
-                }
-                else return;
+                checkOperation(RUNTIME_EXIT, callingModule, null);
+                return;
             case "ProcessBuilder.start":
-                if (!checkSystemExec(callingModule)) {
-                    throw new RuntimeException("ProceesBuilder.start(...) not allowed for Module: " +  getModuleName(callingModule));
-                }
-                else return;
+                checkOperation(PROCESS_BUILDER_START, callingModule, null);
+                return;
             case "Socket.connect":
-                if (!checkSocketPermission(callingModule)) {
-                    throw new RuntimeException("Socket.connect not allowed for Module: " +  getModuleName(callingModule));
-                }
-                else return;
+                checkOperation(SOCKET_CONNECT, callingModule, null);
+                return;
             case "ServerSocket.bind":
-                if (!checkSocketBindPermission(callingModule)) {
-                    throw new RuntimeException("ServerSocket.bind not allowed for Module: " +  getModuleName(callingModule));
-                }
-                else return;
+                checkOperation(SERVER_SOCKET_BIND, callingModule, null);
+                return;
+            case "File.open":
+                checkOperation(FILE_OPEN, callingModule, null);
+                return;
             default:
                 throw new IllegalArgumentException("Unknown method: " + method);
         }
     }
 
     /**
-     * Returns differntiated error message when an unnamed module appears
-     * @param module
-     * @return - Module name if module exist otherwise returns information of unnamed module
+     * Method checks if called network method has the permissions to be executed with the given endpoint
+     * @param method - network method that is currently called, Socket.connect or ServerSocket.bind
+     * @param endpoint - endpoint the method connects or binds to
+     * @throws RuntimeException - if method/ callers don't have the permissions to use the endpoint
      */
-    private String getModuleName(Module module) {
-        return module.isNamed() ? module.getName() : "unnamed module";
+    // should be private
+    public void checkPermissionInternal(String method, SocketAddress endpoint) {
+        var callingModule = callingClassModule();
+        switch (method) {
+            case "Socket.connect":
+                checkOperation(SOCKET_CONNECT, callingModule, endpoint);
+                return;
+            case "ServerSocket.bind":
+                checkOperation(SERVER_SOCKET_BIND, callingModule, bindEndpoint(endpoint));
+                return;
+            default:
+                throw new IllegalArgumentException("Unknown network method: " + method);
+        }
     }
 
     /**
-     * Checks if caller has permission to call System.exit()
-     * @return boolean - true iff caller module has the right permissions otherwise false
-     * @see #callingClassModule() for reference how the caller module is identified
+     * Method checks if the calling module has the permissions to start the given command
+     * @param command - executable and arguments of the process that is started
+     * @throws RuntimeException - if method/ callers don't have the permissions to start the command
      */
-    private boolean checkSystemExit(Module callingModule) {
-        logger.log(Level.FINE, "Module that initially called the method {0} ", callingModule);
-        return this.systemExitAllowPermissions.contains(callingModule.toString());
+    // should be private
+    public void checkPermissionInternal(List<String> command) {
+        checkOperation(PROCESS_BUILDER_START, callingClassModule(), command);
     }
 
     /**
-     * Checks if caller has permission to call System.exec()
-     *@return boolean - true iff caller module has the right permissions otherwise false
-     *@see #callingClassModule() for reference how the caller module is identified
+     * Method checks if the calling module has the permissions to open the given file
+     * @param file - path of the file that is opened
+     * @throws RuntimeException - if method/ callers don't have the permissions to open the file
      */
-    private boolean checkSystemExec(Module callingModule) {
-        logger.log(Level.FINE, "Module that initially called the method {0} ", callingModule);
-        return this.systemExecAllowPermissions.contains(callingModule.toString());
+    // should be private
+    public void checkPermissionInternal(Path file) {
+        checkOperation(FILE_OPEN, callingClassModule(), file);
     }
 
+    /**
+     * Checks the permission of an operation for the calling module, has the same depth on the stack as
+     * {@link #checkPermissionInternal(String)}
+     * @param operation - operation code of the method that is currently called
+     * @param target - endpoint of a network operation, command of ProcessBuilder.start, File or Path of a file open,
+     * null for all other operations or if it is not known
+     * @throws RuntimeException - if method/ callers don't have the permissions to be executed
+     */
+    private void checkOperation(int operation, Object target) {
+        // metrics and events are handled here to keep the frames of the stack walk unchanged
+        long start = METRICS ? System.nanoTime() : 0L;
+        try {
+            if (!FLIGHT_RECORDER) {
+                checkOperation(operation, callingClassModule(), target);
+                return;
+            }
+            MatildaPermissionCheckEvent event = new MatildaPermissionCheckEvent();
+            event.begin();
+            Module callingModule = callingClassModule();
+            boolean allowed = false;
+            try {
+                checkOperation(operation, callingModule, target);
+                allowed = true;
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    commit(event, operation, callingModule, allowed, callingClassDepth());
+                }
+            }
+        } finally {
+            if (METRICS) {
+                MatildaMetrics.recordLatency(operation, System.nanoTime() - start);
+            }
+        }
+    }
 
     /**
-     * Checks if caller has permission to call Socket.connect()
-     *@return boolean - true iff caller module has the right permissions otherwise false
-     *@see #callingClassModule() for reference how the caller module is identified
+     * Fills and commits a flight recorder event of a check
      */
-    private boolean checkSocketPermission(Module callingModule) {
-        logger.log(Level.FINE, "Module that initially called the method {0} ", callingModule);
-        return this.networkConnectAllowPermissions.contains(callingModule.toString());
+    private static void commit(MatildaPermissionCheckEvent event, int operation, Module callingModule, boolean allowed,
+                               int stackWalkDepth) {
+        event.operation = MatildaRules.operationName(operation);
+        event.callerModule = callingModule == null ? null
+                : callingModule.isNamed() ? callingModule.getName() : "unnamed module";
+        event.allowed = allowed;
+        event.stackWalkDepth = stackWalkDepth;
+        event.commit();
     }
 
+    /**
+     * Checks if the given module has the permission to execute an operation
+     * @param operation - operation code of the method that is currently called
+     * @param callingModule - module that initially called the method
+     * @param target - endpoint of a network operation, command of ProcessBuilder.start, File or Path of a file open,
+     * null for all other operations or if it is not known
+     * @throws RuntimeException - if method/ callers don't have the permissions to be executed
+     */
+    private void checkOperation(int operation, Module callingModule, Object target) {
+        if (operation < 0 || operation >= MatildaRules.operationCount()) {
+            throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+        if (operation == FILE_OPEN && callingModule == MATILDA_MODULE) {
+            return;
+        }
+        boolean allowed;
+        boolean rateLimited = false;
+        SocketAddress deniedEndpoint = null;
+        List<String> deniedCommand = null;
+        String deniedFile = null;
+        MatildaConfiguration configuration = this.configuration;
+        if (POLICY_LEARNER != null) {
+            POLICY_LEARNER.record(callingModule, operation);
+            allowed = true;
+        } else {
+            allowed = configuration.policy().allows(callingModule, operation);
+            if (allowed && configuration.endpoints() != null && configuration.endpoints().restricts(operation)) {
+                SocketAddress endpoint = target instanceof SocketAddress address ? address : null;
+                if (!configuration.endpoints().allows(callingModule, operation, endpoint)) {
+                    allowed = false;
+                    deniedEndpoint = endpoint;
+                }
+            }
+            if (allowed && configuration.commands() != null && operation == PROCESS_BUILDER_START) {
+                @SuppressWarnings("unchecked")
+                List<String> command = (List<String>) target;
+                if (!configuration.commands().allows(callingModule, command)) {
+                    allowed = false;
+                    deniedCommand = command;
+                }
+            }
+            if (allowed && configuration.files() != null && operation == FILE_OPEN
+                    && !configuration.files().allows(callingModule, target)) {
+                allowed = false;
+                deniedFile = target == null ? null : target.toString();
+            }
+            if (allowed && configuration.rateLimits() != null
+                    && !configuration.rateLimits().tryAcquire(callingModule, operation)) {
+                allowed = false;
+                rateLimited = true;
+            }
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Module that initially called the method {0} ", callingModule);
+        }
+        if (AUDIT_LOG != null) {
+            AUDIT_LOG.record(callingModule, operation, allowed);
+        }
+        if (METRICS) {
+            MatildaMetrics.recordCheck(callingModule, operation, allowed);
+        }
+        if (!allowed) {
+            throw configuration.denials().deny(callingModule, operation, MatildaRules.operationName(operation), deniedEndpoint,
+                    deniedCommand, deniedFile, rateLimited);
+        }
+    }
 
     /**
-     * Checks if caller has permission to call Socket.bind()
-     *@return boolean - true iff caller module has the right permissions otherwise false
-     *@see #callingClassModule() for reference how the caller module is identified
+     * Returns differntiated error message when an unnamed module appears
+     * @param module - calling module, null if only platform modules are on the stack e.g. the threads of HttpClient
+     * @return - Module name if module exist otherwise returns information of unnamed module
+     */
+    static String getModuleName(Module module) {
+        return module == null ? "unknown module" : module.isNamed() ? module.getName() : "unnamed module";
+    }
+
+    /**
+     * Checks if an operation is allowed for every module, checks of such an operation can be skipped entirely. Skipped
+     * checks are neither recorded in the metrics nor as flight recorder events.
+     * @param operation - operation code of the guarded method
+     * @return boolean - true iff the configuration allows the operation for every module
      */
-    private boolean checkSocketBindPermission(Module callingModule) {
-        logger.log(Level.FINE, "Module that initially called the method {0} ", callingModule);
-        return this.serverSocketBindAllowPermissions.contains(callingModule.toString());
+    boolean allowsAllModules(int operation) {
+        // in learning mode and with an audit log every check needs to be executed to record its calling module
+        MatildaConfiguration configuration = this.configuration;
+        return POLICY_LEARNER == null && AUDIT_LOG == null
+                && (configuration.rateLimits() == null || !configuration.rateLimits().limits(operation))
+                && (configuration.endpoints() == null || !configuration.endpoints().restricts(operation))
+                && (configuration.commands() == null || operation != PROCESS_BUILDER_START)
+                && (configuration.files() == null || operation != FILE_OPEN)
+                && configuration.policy().allowsAllModules(operation);
     }
 
     /**
@@ -221,14 +631,51 @@ public final class MatildaAccessControl {
     private Module callingClassModule() {
         final int framesToSkip =
                 1  // MatildaAccessControl.callingClass
-                + 1  // MatildaAccessControl.checkPermissionInternal
-                + 1  // MatildaAccessControl.checkPermission
+                + 1  // MatildaAccessControl.callingClassModule
+                + 1  // MatildaAccessControl.checkPermissionInternal / checkOperation
+                + 1  // MatildaAccessControl.checkPermission / operation specific entry point
                 + 1  // the instrumented method ie. Runtime.exit / exec etc.
                 ;
         return callingClass(framesToSkip);
     }
 
 
+    /**
+     * Counts the frames that are walked to find the calling module, has the same depth on the stack as
+     * {@link #callingClassModule()} and is only used for flight recorder events
+     * @return int - number of walked frames including the frame of the calling module
+     */
+    private int callingClassDepth() {
+        final int framesToSkip =
+                1  // MatildaAccessControl.walkedFrames
+                + 1  // MatildaAccessControl.callingClassDepth
+                + 1  // MatildaAccessControl.checkOperation
+                + 1  // MatildaAccessControl.operation specific entry point
+                + 1  // the instrumented method ie. Runtime.exit / exec etc.
+                ;
+        return walkedFrames(framesToSkip);
+    }
+
+    /**
+     * Counts the frames that are walked until the first frame that does not belong to a platform module
+     * @param framesToSkip - number of frames, element on stack that should be skipped
+     * @return int - number of walked frames including the first frame of a non platform module
+     */
+    private int walkedFrames(int framesToSkip) {
+        return STACK_WALKER.walk(frames -> {
+            int walked = 0;
+            Iterator<StackWalker.StackFrame> iterator = frames.iterator();
+            while (iterator.hasNext()) {
+                Module module = iterator.next().getDeclaringClass().getModule();
+                walked++;
+                if (walked > framesToSkip && !PLATFORM_MODULES.contains(module)) {
+                    break;
+                }
+            }
+            return walked;
+        });
+    }
+
     /**
      * Iterates over the current Stack and skips specified number of elements
      * @param framesToSkip - number of frames, element on stack that should be skipped
@@ -237,16 +684,43 @@ public final class MatildaAccessControl {
     // Is not private as MatildaAccessControl can only be instantiated once
     public Module callingClass(int framesToSkip) {
         if (framesToSkip < 0) throw new IllegalArgumentException("framesToSkip must be >=0");
-        Optional<Module> module = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE)
-                .walk(
-                        s -> s.skip(framesToSkip)
-                                .map(f -> {
-                                    Class<?> declaringClass = f.getDeclaringClass();
-                                    return declaringClass.getModule();
-                                })
-                                .filter(m -> !ALLOWED_MODULES.contains(m))
-                                .findFirst()
-                );
-        return module.orElse(null);
+        return STACK_WALKER.walk(frames -> firstNonPlatformModule(frames, framesToSkip));
+    }
+
+    /**
+     * Walks the frames lazily and stops at the first frame that does not belong to a platform module, frames above
+     * that frame are never fetched from the VM
+     * @param frames - frames of the current stack, starting with the top most frame
+     * @param framesToSkip - number of frames that should be skipped
+     * @return Module - first module that is not a platform module or null if there is none
+     */
+    private static Module firstNonPlatformModule(Stream<StackWalker.StackFrame> frames, int framesToSkip) {
+        Iterator<StackWalker.StackFrame> iterator = frames.iterator();
+        for (int skipped = 0; skipped < framesToSkip && iterator.hasNext(); skipped++) {
+            iterator.next();
+        }
+        while (iterator.hasNext()) {
+            Module module = iterator.next().getDeclaringClass().getModule();
+            if (!PLATFORM_MODULES.contains(module)) {
+                return module;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects all modules of the boot layer that are defined to the boot or the platform class loader, these modules
+     * only call guarded methods on behalf of the application
+     * @return Set - platform modules of the boot layer
+     */
+    private static Set<Module> platformModules() {
+        ModuleLayer bootLayer = ModuleLayer.boot();
+        if (bootLayer == null) { // module system is not initialized yet
+            return Set.of(System.class.getModule());
+        }
+        ClassLoader platformClassLoader = ClassLoader.getPlatformClassLoader();
+        return bootLayer.modules().stream()
+                .filter(module -> module.getClassLoader() == null || module.getClassLoader() == platformClassLoader)
+                .collect(Collectors.toUnmodifiableSet());
     }
 }
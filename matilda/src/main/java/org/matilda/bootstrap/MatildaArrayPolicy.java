@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Policy that is compiled from the properties of the configuration, the bitmasks are held in an array indexed by the
+ * dense module index.
+ */
+final class MatildaArrayPolicy extends MatildaPolicy {
+    // Dense index per module name of the configuration, starting at 1
+    private final Map<String, Integer> moduleIndexes;
+    // Bitmask of the allowed operations per index
+    private final long[] allowedOperations;
+
+    /**
+     * Compiles a policy
+     * @param rules - bitmask of the allowed operations keyed by module name as used in the configuration
+     *              e.g. "module gradle.worker", "module ALL-UNNAMED" or "module *"
+     */
+    MatildaArrayPolicy(Map<String, Long> rules) {
+        long allModules = rules.getOrDefault(ALL_MODULES, 0L);
+        Map<String, Integer> indexes = new HashMap<>();
+        long[] masks = new long[rules.size() + 1];
+        masks[NO_RULES] = allModules;
+        for (Map.Entry<String, Long> rule : rules.entrySet()) {
+            if (ALL_MODULES.equals(rule.getKey())) {
+                continue;
+            }
+            int index = indexes.size() + 1;
+            indexes.put(rule.getKey(), index);
+            masks[index] = rule.getValue() | allModules;
+        }
+        this.moduleIndexes = Map.copyOf(indexes);
+        this.allowedOperations = masks;
+    }
+
+    @Override
+    int indexOf(String moduleName) {
+        return moduleIndexes.getOrDefault(moduleName, NO_RULES);
+    }
+
+    @Override
+    long allowedOperations(int index) {
+        return allowedOperations[index];
+    }
+
+    @Override
+    int indexCount() {
+        return allowedOperations.length;
+    }
+}
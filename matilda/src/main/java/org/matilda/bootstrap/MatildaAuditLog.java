@@ -0,0 +1,408 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Audit log of the permission checks. Checks record an event of (timestamp, module index, operation, verdict) in a
+ * preallocated lock-free ring buffer without allocating, a background thread writes the events in batches to
+ * size-rotated files audit.log.0 (newest) to audit.log.n in the audit directory. Each line has the format
+ * "timestamp::module::operation::verdict".
+ * The audit log is enabled with -Dmatilda.audit.dir=&lt;directory&gt; and configured with
+ * <pre>
+ * matilda.audit.buffer.size  number of events the ring buffer holds, rounded up to a power of two, default 8192
+ * matilda.audit.overflow     block, drop or sample, what to do when the writer can't keep up, default drop
+ * matilda.audit.file.size    size in bytes after which the file is rotated, default 10485760
+ * matilda.audit.file.count   number of files that are kept, default 5
+ * </pre>
+ * Events that are not recorded are counted, see {@link #droppedEvents()}.
+ */
+public final class MatildaAuditLog implements Runnable, AutoCloseable {
+
+    /**
+     * What a check does if the ring buffer is full
+     */
+    public enum Overflow {
+        // waits until the writer made room, no event gets lost but checks are slowed down to the speed of the disk. A
+        // check spins briefly and then parks, threads waiting for the disk don't burn their cores
+        BLOCK,
+        // drops the event
+        DROP,
+        // records only every SAMPLE_RATE-th event once the buffer is half full and drops the event if it is full
+        SAMPLE
+    }
+
+    private static final Logger logger = Logger.getLogger(MatildaAuditLog.class.getName());
+    // Expected share of events that are recorded when sampling
+    private static final int SAMPLE_RATE = 16;
+    // Time the writer waits for new events once the buffer has been drained, doubled while no events arrive
+    private static final long MIN_IDLE_NANOS = 1_000_000;
+    private static final long MAX_IDLE_NANOS = 100_000_000;
+    // Spins of a check that found the buffer full before it parks, the writer usually frees a slot within a few spins
+    private static final int BLOCKED_SPINS = 100;
+    // Time a blocked check parks once it stopped spinning, doubled while the buffer stays full
+    private static final long MIN_BLOCKED_NANOS = 10_000;
+    private static final long MAX_BLOCKED_NANOS = 1_000_000;
+    private static final MatildaAuditLog INSTANCE = createInstance();
+    private final Path directory;
+    private final Overflow overflow;
+    private final long fileSize;
+    private final int fileCount;
+    // Ring buffer, slot n holds the event with the sequence number n + k * capacity
+    private final int mask;
+    private final long[] timestamps;
+    private final long[] events;
+    // Sequence of each slot, it tells producers and the writer whether the slot is free or holds an event
+    private final AtomicLongArray sequences;
+    // Next sequence number a producer claims
+    private final AtomicLong tail = new AtomicLong();
+    // Next sequence number the writer reads, only written by the writer
+    private volatile long head;
+    private final LongAdder dropped = new LongAdder();
+    // Dense index per module and its name, names are only read by the writer. Index 0 is reserved for checks without
+    // an application module on the stack
+    private final ConcurrentHashMap<Module, Integer> moduleIndexes = new ConcurrentHashMap<>();
+    private volatile String[] moduleNames = {MatildaAccessControl.getModuleName(null)};
+    private volatile boolean running;
+    // Set while the writer waits for new events, the next producer wakes it up
+    private volatile boolean idle;
+    private volatile Thread writer;
+    // File and line of the writer, only accessed by the writer
+    private BufferedWriter output;
+    private long outputSize;
+    private final StringBuilder line = new StringBuilder(128);
+
+    /**
+     * Creates an audit log, events are buffered until the writer is started
+     * @param directory - directory of the audit files
+     * @param bufferSize - number of events the ring buffer holds, rounded up to a power of two
+     * @param overflow - what a check does if the ring buffer is full
+     * @param fileSize - size in bytes after which the file is rotated
+     * @param fileCount - number of files that are kept
+     */
+    public MatildaAuditLog(Path directory, int bufferSize, Overflow overflow, long fileSize, int fileCount) {
+        if (bufferSize <= 0 || bufferSize > 1 << 30 || fileSize <= 0 || fileCount <= 0) {
+            throw new IllegalArgumentException("Not a valid audit configuration");
+        }
+        int capacity = Integer.highestOneBit(bufferSize) == bufferSize ? bufferSize : Integer.highestOneBit(bufferSize) << 1;
+        this.directory = directory;
+        this.overflow = overflow;
+        this.fileSize = fileSize;
+        this.fileCount = fileCount;
+        this.mask = capacity - 1;
+        this.timestamps = new long[capacity];
+        this.events = new long[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            sequences.set(slot, slot);
+        }
+    }
+
+    /**
+     * Returns the audit log configured via the commandline
+     * @return MatildaAuditLog - audit log or null if auditing is not enabled
+     */
+    static MatildaAuditLog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates and starts the audit log configured via the commandline
+     * @return MatildaAuditLog - started audit log or null if no audit directory is configured
+     */
+    private static MatildaAuditLog createInstance() {
+        String directory = System.getProperty("matilda.audit.dir");
+        if (directory == null) {
+            return null;
+        }
+        MatildaAuditLog auditLog = new MatildaAuditLog(Path.of(directory),
+                Integer.parseInt(System.getProperty("matilda.audit.buffer.size", "8192")),
+                Overflow.valueOf(System.getProperty("matilda.audit.overflow", "drop").toUpperCase(Locale.ROOT)),
+                Long.parseLong(System.getProperty("matilda.audit.file.size", "10485760")),
+                Integer.parseInt(System.getProperty("matilda.audit.file.count", "5")));
+        auditLog.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(auditLog::close, "matilda-audit-shutdown"));
+        return auditLog;
+    }
+
+    /**
+     * Starts the background writer
+     */
+    public synchronized void start() {
+        if (writer != null) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this, "matilda-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records the verdict of a check, does not allocate once the module has been recorded before
+     * @param module - module that called the operation
+     * @param operation - operation code of the guarded method
+     * @param allowed - true iff the operation has been allowed
+     */
+    public void record(Module module, int operation, boolean allowed) {
+        long event = (long) moduleIndex(module) << 32 | (long) operation << 1 | (allowed ? 1 : 0);
+        long timestamp = System.currentTimeMillis();
+        long sequence = claim();
+        if (sequence < 0) {
+            dropped.increment();
+            return;
+        }
+        int slot = (int) sequence & mask;
+        timestamps[slot] = timestamp;
+        events[slot] = event;
+        // publishes the event to the writer
+        sequences.lazySet(slot, sequence + 1);
+        if (idle) {
+            wakeWriter();
+        }
+    }
+
+    /**
+     * Wakes the writer up if it waits for new events, a writer that has not been started yet is not woken up
+     */
+    private void wakeWriter() {
+        idle = false;
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Claims the next slot of the ring buffer
+     * @return long - sequence number of the claimed slot or -1 if the event should be dropped
+     */
+    private long claim() {
+        if (overflow == Overflow.SAMPLE && tail.get() - head > mask >> 1
+                && ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0) {
+            return -1;
+        }
+        long sequence = tail.get();
+        int blocked = 0;
+        while (true) {
+            long difference = sequences.get((int) sequence & mask) - sequence;
+            if (difference == 0) {
+                if (tail.compareAndSet(sequence, sequence + 1)) {
+                    return sequence;
+                }
+                sequence = tail.get();
+            } else if (difference < 0) { // buffer is full
+                if (overflow != Overflow.BLOCK || !running) {
+                    return -1;
+                }
+                wakeWriter();
+                awaitFreeSlot(blocked++);
+                sequence = tail.get();
+            } else { // another producer claimed the slot
+                sequence = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Waits for the writer to free a slot of the full buffer, spins first and parks with backoff while the writer is
+     * busy with the disk
+     * @param attempts - number of times the check found the buffer full before
+     */
+    private static void awaitFreeSlot(int attempts) {
+        if (attempts < BLOCKED_SPINS) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(Math.min(MIN_BLOCKED_NANOS << Math.min(attempts - BLOCKED_SPINS, 7), MAX_BLOCKED_NANOS));
+        }
+    }
+
+    /**
+     * Returns the dense index of a module, modules are registered on their first event
+     */
+    private int moduleIndex(Module module) {
+        if (module == null) {
+            return 0;
+        }
+        Integer index = moduleIndexes.get(module);
+        if (index != null) {
+            return index;
+        }
+        synchronized (moduleIndexes) {
+            index = moduleIndexes.get(module);
+            if (index == null) {
+                String[] names = Arrays.copyOf(moduleNames, moduleNames.length + 1);
+                names[names.length - 1] = MatildaAccessControl.getModuleName(module);
+                // names need to be published before the index is used in an event
+                moduleNames = names;
+                index = names.length - 1;
+                moduleIndexes.put(module, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the number of events that have not been recorded because the buffer was full or sampled
+     * @return long - number of dropped events
+     */
+    public long droppedEvents() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void run() {
+        try {
+            long idleNanos = MIN_IDLE_NANOS;
+            while (true) {
+                if (drain() > 0) {
+                    idleNanos = MIN_IDLE_NANOS;
+                    continue;
+                }
+                if (output != null) {
+                    output.flush();
+                }
+                if (!running) {
+                    break;
+                }
+                // producers wake the writer up, the timeout only bounds the delay of an event published just before
+                // the writer became idle, it backs off while no events arrive
+                idle = true;
+                LockSupport.parkNanos(idleNanos);
+                idle = false;
+                idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Audit log " + directory + " can't be written, auditing is stopped", e);
+            running = false;
+        } finally {
+            closeOutput();
+        }
+    }
+
+    /**
+     * Writes all events that have been published
+     * @return int - number of written events
+     * @throws IOException - if the audit file can't be written
+     */
+    private int drain() throws IOException {
+        int drained = 0;
+        long sequence = head;
+        while (true) {
+            int slot = (int) sequence & mask;
+            if (sequences.get(slot) != sequence + 1) {
+                break;
+            }
+            long timestamp = timestamps[slot];
+            long event = events[slot];
+            // hands the slot back to the producers of the next round
+            sequences.lazySet(slot, sequence + mask + 1);
+            sequence++;
+            head = sequence;
+            line.setLength(0);
+            line.append(Instant.ofEpochMilli(timestamp)).append("::")
+                    .append(moduleNames[(int) (event >>> 32)]).append("::")
+                    .append(MatildaRules.operationName(((int) event) >>> 1)).append("::")
+                    .append((event & 1) != 0 ? "allowed" : "denied").append('\n');
+            write(line);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Writes a line to the current file and rotates the files if the size limit is reached
+     */
+    private void write(CharSequence line) throws IOException {
+        if (output == null) {
+            Files.createDirectories(directory);
+            Path file = directory.resolve("audit.log.0");
+            outputSize = Files.exists(file) ? Files.size(file) : 0;
+            output = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        output.append(line);
+        outputSize += line.length();
+        if (outputSize >= fileSize) {
+            output.close();
+            output = null;
+            rotate();
+        }
+    }
+
+    /**
+     * Shifts audit.log.n to audit.log.n+1, the oldest file is deleted
+     */
+    private void rotate() throws IOException {
+        Files.deleteIfExists(directory.resolve("audit.log." + (fileCount - 1)));
+        for (int file = fileCount - 2; file >= 0; file--) {
+            Path source = directory.resolve("audit.log." + file);
+            if (Files.exists(source)) {
+                Files.move(source, directory.resolve("audit.log." + (file + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private void closeOutput() {
+        try {
+            if (output != null) {
+                output.close();
+                output = null;
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Audit log " + directory + " can't be closed", e);
+        }
+    }
+
+    /**
+     * Stops the writer after all recorded events have been written, if the writer has not been started the events
+     * are written by the calling thread
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = writer;
+        }
+        if (thread == null) {
+            run();
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
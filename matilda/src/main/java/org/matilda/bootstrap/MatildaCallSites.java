@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.File;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Path;
+
+/**
+ * Bootstrap of the invokedynamic permission checks the agent injects into the instrumented methods.
+ * All check sites of an operation are linked to the same {@link MutableCallSite}, its target is the operation
+ * specific entry point of {@link MatildaAccessControl} or a no-op if the operation is allowed for every module.
+ * The JIT treats the target as a constant and compiles a no-op check away entirely.
+ * Checks of network operations pass their endpoint, checks of DatagramChannel.send the channel and the target of the
+ * datagram, checks of ProcessBuilder.start their command and checks of file opens their file, they are linked to call
+ * sites of their own type.
+ *
+ * @see MatildaAccessControl#checkSocketConnect() for an example of an entry point
+ */
+public final class MatildaCallSites {
+    // Type of all entry points, checks don't take arguments and return no value
+    private static final MethodType CHECK_TYPE = MethodType.methodType(void.class);
+    // Type of the entry points of network operations, checks take the endpoint and return no value
+    private static final MethodType ENDPOINT_CHECK_TYPE = MethodType.methodType(void.class, SocketAddress.class);
+    // Type of the entry point of DatagramChannel.send, the check takes the channel and the target of the datagram
+    private static final MethodType DATAGRAM_CHECK_TYPE =
+            MethodType.methodType(void.class, DatagramChannel.class, SocketAddress.class);
+    // Type of the entry point of ProcessBuilder.start, the check takes the command that is started and returns no value
+    private static final MethodType COMMAND_CHECK_TYPE = MethodType.methodType(void.class, String[].class);
+    // Types of the entry points of file opens, checks take the File or Path that is opened and return no value
+    private static final MethodType FILE_CHECK_TYPE = MethodType.methodType(void.class, File.class);
+    private static final MethodType PATH_CHECK_TYPE = MethodType.methodType(void.class, Path.class);
+    /*
+     * Call sites are linked to their entry points until they are relinked. Files are opened while the access control
+     * is initialized, if that happens before the call sites are initialized they can't be relinked and stay linked to
+     * the entry points, which skip the checks of file opens until the access control has been initialized.
+     */
+    private static final MutableCallSite RUNTIME_EXIT = new MutableCallSite(entryPoint("checkRuntimeExit", CHECK_TYPE));
+    private static final MutableCallSite PROCESS_BUILDER_START =
+            new MutableCallSite(entryPoint("checkProcessBuilderStart", CHECK_TYPE));
+    private static final MutableCallSite SOCKET_CONNECT = new MutableCallSite(entryPoint("checkSocketConnect", CHECK_TYPE));
+    private static final MutableCallSite SERVER_SOCKET_BIND =
+            new MutableCallSite(entryPoint("checkServerSocketBind", CHECK_TYPE));
+    private static final MutableCallSite SOCKET_CONNECT_ENDPOINT =
+            new MutableCallSite(entryPoint("checkSocketConnect", ENDPOINT_CHECK_TYPE));
+    private static final MutableCallSite SERVER_SOCKET_BIND_ENDPOINT =
+            new MutableCallSite(entryPoint("checkServerSocketBind", ENDPOINT_CHECK_TYPE));
+    private static final MutableCallSite DATAGRAM_SEND =
+            new MutableCallSite(entryPoint("checkDatagramSend", DATAGRAM_CHECK_TYPE));
+    private static final MutableCallSite PROCESS_BUILDER_START_COMMAND =
+            new MutableCallSite(entryPoint("checkProcessBuilderStart", COMMAND_CHECK_TYPE));
+    private static final MutableCallSite FILE_OPEN = new MutableCallSite(entryPoint("checkFileOpen", FILE_CHECK_TYPE));
+    private static final MutableCallSite FILE_OPEN_PATH = new MutableCallSite(entryPoint("checkFileOpen", PATH_CHECK_TYPE));
+
+    static {
+        relink(MatildaAccessControl.getInstance());
+    }
+
+    private MatildaCallSites() {
+    }
+
+    /**
+     * Is called by the JVM when an injected check is executed the first time
+     * @param lookup - lookup of the instrumented class, not needed as the entry points are public
+     * @param entryPoint - name of the operation specific entry point e.g. checkSocketConnect
+     * @param type - type of the check, ()V, (Ljava/net/SocketAddress;)V for network operations,
+     *             (Ljava/nio/channels/DatagramChannel;Ljava/net/SocketAddress;)V for DatagramChannel.send or
+     *             ([Ljava/lang/String;)V for ProcessBuilder.start, (Ljava/io/File;)V or
+     *             (Ljava/nio/file/Path;)V for file opens
+     * @return CallSite - call site that is shared by all checks of the operation
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String entryPoint, MethodType type) {
+        if (ENDPOINT_CHECK_TYPE.equals(type)) {
+            switch (entryPoint) {
+                case "checkSocketConnect":
+                    return SOCKET_CONNECT_ENDPOINT;
+                case "checkServerSocketBind":
+                    return SERVER_SOCKET_BIND_ENDPOINT;
+                default:
+                    throw new IllegalArgumentException("Unknown entry point: " + entryPoint + type);
+            }
+        }
+        if (DATAGRAM_CHECK_TYPE.equals(type)) {
+            if (!entryPoint.equals("checkDatagramSend")) {
+                throw new IllegalArgumentException("Unknown entry point: " + entryPoint + type);
+            }
+            return DATAGRAM_SEND;
+        }
+        if (FILE_CHECK_TYPE.equals(type) || PATH_CHECK_TYPE.equals(type)) {
+            if (!entryPoint.equals("checkFileOpen")) {
+                throw new IllegalArgumentException("Unknown entry point: " + entryPoint + type);
+            }
+            return FILE_CHECK_TYPE.equals(type) ? FILE_OPEN : FILE_OPEN_PATH;
+        }
+        if (COMMAND_CHECK_TYPE.equals(type)) {
+            if (!entryPoint.equals("checkProcessBuilderStart")) {
+                throw new IllegalArgumentException("Unknown entry point: " + entryPoint + type);
+            }
+            return PROCESS_BUILDER_START_COMMAND;
+        }
+        if (!CHECK_TYPE.equals(type)) {
+            throw new IllegalArgumentException("Unexpected type of check " + entryPoint + ": " + type);
+        }
+        switch (entryPoint) {
+            case "checkRuntimeExit":
+                return RUNTIME_EXIT;
+            case "checkProcessBuilderStart":
+                return PROCESS_BUILDER_START;
+            case "checkSocketConnect":
+                return SOCKET_CONNECT;
+            case "checkServerSocketBind":
+                return SERVER_SOCKET_BIND;
+            default:
+                throw new IllegalArgumentException("Unknown entry point: " + entryPoint);
+        }
+    }
+
+    /**
+     * Links all call sites against the given configuration, needs to be called whenever the configuration changes.
+     * Compiled code that inlined a previous target is deoptimized.
+     * @param accessControl - access control that holds the configuration that is enforced
+     */
+    static void relink(MatildaAccessControl accessControl) {
+        if (accessControl == null) {
+            // a file has been opened while the access control is initialized
+            return;
+        }
+        MutableCallSite[] callSites = {RUNTIME_EXIT, PROCESS_BUILDER_START, SOCKET_CONNECT, SERVER_SOCKET_BIND,
+                SOCKET_CONNECT_ENDPOINT, SERVER_SOCKET_BIND_ENDPOINT, DATAGRAM_SEND, PROCESS_BUILDER_START_COMMAND,
+                FILE_OPEN, FILE_OPEN_PATH};
+        RUNTIME_EXIT.setTarget(target(accessControl, MatildaAccessControl.RUNTIME_EXIT, "checkRuntimeExit", CHECK_TYPE));
+        PROCESS_BUILDER_START.setTarget(target(accessControl, MatildaAccessControl.PROCESS_BUILDER_START,
+                "checkProcessBuilderStart", CHECK_TYPE));
+        SOCKET_CONNECT.setTarget(
+                target(accessControl, MatildaAccessControl.SOCKET_CONNECT, "checkSocketConnect", CHECK_TYPE));
+        SERVER_SOCKET_BIND.setTarget(
+                target(accessControl, MatildaAccessControl.SERVER_SOCKET_BIND, "checkServerSocketBind", CHECK_TYPE));
+        SOCKET_CONNECT_ENDPOINT.setTarget(target(accessControl, MatildaAccessControl.SOCKET_CONNECT,
+                "checkSocketConnect", ENDPOINT_CHECK_TYPE));
+        SERVER_SOCKET_BIND_ENDPOINT.setTarget(target(accessControl, MatildaAccessControl.SERVER_SOCKET_BIND,
+                "checkServerSocketBind", ENDPOINT_CHECK_TYPE));
+        DATAGRAM_SEND.setTarget(target(accessControl, MatildaAccessControl.SOCKET_CONNECT,
+                "checkDatagramSend", DATAGRAM_CHECK_TYPE));
+        PROCESS_BUILDER_START_COMMAND.setTarget(target(accessControl, MatildaAccessControl.PROCESS_BUILDER_START,
+                "checkProcessBuilderStart", COMMAND_CHECK_TYPE));
+        FILE_OPEN.setTarget(target(accessControl, MatildaAccessControl.FILE_OPEN, "checkFileOpen", FILE_CHECK_TYPE));
+        FILE_OPEN_PATH.setTarget(target(accessControl, MatildaAccessControl.FILE_OPEN, "checkFileOpen", PATH_CHECK_TYPE));
+        MutableCallSite.syncAll(callSites);
+    }
+
+    /**
+     * Resolves the target of a call site
+     * @param accessControl - access control that holds the configuration that is enforced
+     * @param operation - operation code of the guarded method
+     * @param entryPoint - name of the operation specific entry point
+     * @param type - type of the entry point
+     * @return MethodHandle - no-op if the operation is allowed for every module, otherwise the entry point
+     */
+    private static MethodHandle target(MatildaAccessControl accessControl, int operation, String entryPoint,
+                                       MethodType type) {
+        if (accessControl.allowsAllModules(operation)) {
+            return MethodHandles.empty(type);
+        }
+        return entryPoint(entryPoint, type);
+    }
+
+    /**
+     * Resolves an entry point of {@link MatildaAccessControl}, its class is not initialized
+     * @param entryPoint - name of the operation specific entry point
+     * @param type - type of the entry point
+     * @return MethodHandle - the entry point
+     */
+    private static MethodHandle entryPoint(String entryPoint, MethodType type) {
+        try {
+            return MethodHandles.lookup().findStatic(MatildaAccessControl.class, entryPoint, type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Entry point " + entryPoint + " can't be resolved", e);
+        }
+    }
+}
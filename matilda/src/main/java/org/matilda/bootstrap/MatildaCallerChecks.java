@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+
+/**
+ * Checks of guarded calls at the call site, used if the agent runs with -Dmatilda.callsite.instrumentation=true.
+ * The agent replaces calls of guarded methods in application classes with invokedynamic instructions that are
+ * bootstrapped here. The module of the calling class is taken from the lookup that is passed by the JVM, it can't be
+ * forged and is bound to the call site, a check doesn't need to walk the stack.
+ * Reflective and MethodHandle calls are not rewritten, they are checked by the instrumented methods as before. The
+ * entry point of the instrumented method only skips its check for the call of a JDK class with the target that has
+ * been checked here, calls of subclasses and any other call on the thread are still checked by the entry point.
+ *
+ * @see MatildaAccessControl#checkAtCallSite(int, Module, Object)
+ */
+public final class MatildaCallerChecks {
+
+    private MatildaCallerChecks() {
+    }
+
+    /**
+     * Is called by the JVM when a rewritten call is executed the first time
+     * @param lookup - lookup of the calling class, needs to have full privilege access
+     * @param name - name of the check e.g. socketConnect
+     * @param type - type of the guarded call, the receiver is the first parameter of instance methods
+     * @return CallSite - call site that checks the permission of the calling module and calls the guarded method
+     * @throws NoSuchMethodException - if there is no check with the given name and type
+     * @throws IllegalAccessException - if the check can't be accessed
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type)
+            throws NoSuchMethodException, IllegalAccessException {
+        if (!lookup.hasFullPrivilegeAccess()) {
+            throw new IllegalArgumentException("Lookup of " + lookup.lookupClass() + " has no full privilege access");
+        }
+        Module callingModule = lookup.lookupClass().getModule();
+        MethodHandle check = MethodHandles.lookup()
+                .findStatic(MatildaCallerChecks.class, name, type.appendParameterTypes(Module.class));
+        return new ConstantCallSite(MethodHandles.insertArguments(check, type.parameterCount(), callingModule));
+    }
+
+    private static void socketConnect(Socket socket, SocketAddress endpoint, Module callingModule) throws IOException {
+        MatildaAccessControl.checkAtCallSite(MatildaAccessControl.SOCKET_CONNECT, callingModule, endpoint);
+        // methods of subclasses run code of their own, their connects are checked by the entry point again
+        if (socket.getClass() == Socket.class) {
+            MatildaAccessControl.setVerifiedOperation(MatildaAccessControl.SOCKET_CONNECT, endpoint);
+        }
+        try {
+            socket.connect(endpoint);
+        } finally {
+            MatildaAccessControl.clearVerifiedOperation();
+        }
+    }
+
+    private static void socketConnectTimeout(Socket socket, SocketAddress endpoint, int timeout, Module callingModule)
+            throws IOException {
+        MatildaAccessControl.checkAtCallSite(MatildaAccessControl.SOCKET_CONNECT, callingModule, endpoint);
+        if (socket.getClass() == Socket.class) {
+            MatildaAccessControl.setVerifiedOperation(MatildaAccessControl.SOCKET_CONNECT, endpoint);
+        }
+        try {
+            socket.connect(endpoint, timeout);
+        } finally {
+            MatildaAccessControl.clearVerifiedOperation();
+        }
+    }
+
+    private static void serverSocketBind(ServerSocket serverSocket, SocketAddress endpoint, Module callingModule)
+            throws IOException {
+        MatildaAccessControl.checkAtCallSite(MatildaAccessControl.SERVER_SOCKET_BIND, callingModule,
+                MatildaAccessControl.bindEndpoint(endpoint));
+        if (serverSocket.getClass() == ServerSocket.class) {
+            MatildaAccessControl.setVerifiedOperation(MatildaAccessControl.SERVER_SOCKET_BIND, endpoint);
+        }
+        try {
+            serverSocket.bind(endpoint);
+        } finally {
+            MatildaAccessControl.clearVerifiedOperation();
+        }
+    }
+
+    private static void serverSocketBindBacklog(ServerSocket serverSocket, SocketAddress endpoint, int backlog,
+                                                Module callingModule) throws IOException {
+        MatildaAccessControl.checkAtCallSite(MatildaAccessControl.SERVER_SOCKET_BIND, callingModule,
+                MatildaAccessControl.bindEndpoint(endpoint));
+        if (serverSocket.getClass() == ServerSocket.class) {
+            MatildaAccessControl.setVerifiedOperation(MatildaAccessControl.SERVER_SOCKET_BIND, endpoint);
+        }
+        try {
+            serverSocket.bind(endpoint, backlog);
+        } finally {
+            MatildaAccessControl.clearVerifiedOperation();
+        }
+    }
+
+    private static Process processBuilderStart(ProcessBuilder processBuilder, Module callingModule) throws IOException {
+        // snapshot of the command, another thread could change the command of the process builder after the check
+        String[] command = processBuilder.command().toArray(new String[0]);
+        MatildaAccessControl.checkAtCallSite(MatildaAccessControl.PROCESS_BUILDER_START, callingModule,
+                Arrays.asList(command));
+        // the entry point only skips its check if the process builder starts exactly the checked command
+        MatildaAccessControl.setVerifiedOperation(MatildaAccessControl.PROCESS_BUILDER_START, command);
+        try {
+            return processBuilder.start();
+        } finally {
+            MatildaAccessControl.clearVerifiedOperation();
+        }
+    }
+
+    private static void runtimeExit(Runtime runtime, int status, Module callingModule) {
+        MatildaAccessControl.checkAtCallSite(MatildaAccessControl.RUNTIME_EXIT, callingModule, null);
+        // Runtime has a single instance of its own class
+        MatildaAccessControl.setVerifiedOperation(MatildaAccessControl.RUNTIME_EXIT, null);
+        try {
+            runtime.exit(status);
+        } finally {
+            MatildaAccessControl.clearVerifiedOperation();
+        }
+    }
+
+    private static void systemExit(int status, Module callingModule) {
+        MatildaAccessControl.checkAtCallSite(MatildaAccessControl.RUNTIME_EXIT, callingModule, null);
+        MatildaAccessControl.setVerifiedOperation(MatildaAccessControl.RUNTIME_EXIT, null);
+        try {
+            System.exit(status);
+        } finally {
+            MatildaAccessControl.clearVerifiedOperation();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts the commands a module may start, configured per module with the executable and a pattern per argument.
+ * An argument pattern is either the literal argument, * for any single argument or ** as last pattern for any number
+ * of remaining arguments, e.g.
+ * <pre>
+ * matilda.system.exec.commands=module com.example.build git **,module com.example.build tar -czf * *
+ * </pre>
+ * A module without command rules may start any command, a module with rules only the commands matching one of them.
+ * The rule of the module itself takes precedence over the rule for all unnamed modules and the rule for all modules.
+ * <p>
+ * The rules of a module are compiled into a deterministic automaton over the tokens of the command when the policy is
+ * loaded, the executable is the first token. Matching takes one hash lookup per token of the command regardless of
+ * the number of rules and never backtracks. The command is checked when ProcessBuilder.start is called, a module that
+ * modifies the command of its ProcessBuilder concurrently races the start and should not be allowed to start
+ * processes at all.
+ */
+final class MatildaCommands {
+    private static final Pattern COMMAND = Pattern.compile("(module \\S+)((?: +\\S+)+)");
+    private static final String ANY_ARGUMENT = "*";
+    private static final String ANY_ARGUMENTS = "**";
+    // Automaton of the command rules keyed by module name
+    private final Map<String, State> rules;
+    // Automata per module keyed by module identity, modules without rules are mapped to UNRESTRICTED
+    private final ConcurrentHashMap<Module, State> resolvedModules = new ConcurrentHashMap<>();
+    // Automaton of calls without an application module on the stack, only the rule for all modules applies
+    private final State unknownCallerRules;
+
+    private MatildaCommands(Map<String, State> rules) {
+        this.rules = rules;
+        this.unknownCallerRules = resolve(null);
+    }
+
+    /**
+     * Loads, validates and compiles the command rules e.g. matilda.system.exec.commands=module gradle.worker git **
+     * @param properties - Properties in the format of System.properties
+     * @return MatildaCommands - command rules or null if no module is restricted
+     * @throws IllegalArgumentException - if a command rule is not valid
+     */
+    static MatildaCommands of(Properties properties) {
+        String commands = properties.getProperty("matilda.system.exec.commands", "");
+        if (commands.isEmpty()) {
+            return null;
+        }
+        Map<String, Node> patterns = new HashMap<>();
+        for (String command : commands.split(",")) {
+            Matcher matcher = COMMAND.matcher(command.strip());
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Not a valid command: " + command);
+            }
+            String[] tokens = matcher.group(2).strip().split(" +");
+            for (int token = 0; token < tokens.length - 1; token++) {
+                if (tokens[token].equals(ANY_ARGUMENTS)) {
+                    throw new IllegalArgumentException("Not a valid command, ** needs to be the last pattern: " + command);
+                }
+            }
+            patterns.computeIfAbsent(matcher.group(1), key -> new Node()).add(tokens, 0);
+        }
+        Map<String, State> rules = new HashMap<>();
+        patterns.forEach((module, root) -> rules.put(module, compile(root)));
+        return new MatildaCommands(rules);
+    }
+
+    /**
+     * Checks if a module may start a command
+     * @param module - module that starts the process, null if there is no application frame on the stack
+     * @param command - executable and arguments, null if it is not known
+     * @return boolean - true iff the module is not restricted or one of its rules matches the command
+     */
+    boolean allows(Module module, List<String> command) {
+        State state = module == null ? unknownCallerRules : resolvedModules.get(module);
+        if (state == null) {
+            state = resolvedModules.computeIfAbsent(module, this::resolve);
+        }
+        if (state == State.UNRESTRICTED) {
+            return true;
+        }
+        if (command == null) {
+            return false;
+        }
+        for (String token : command) {
+            if (state.acceptsAnyArguments) {
+                return true;
+            }
+            state = state.next(token);
+            if (state == null) {
+                return false;
+            }
+        }
+        return state.accepts || state.acceptsAnyArguments;
+    }
+
+    private State resolve(Module module) {
+        State moduleRules = module == null ? null
+                : rules.get(module.isNamed() ? module.toString() : MatildaPolicy.ALL_UNNAMED);
+        if (moduleRules == null) {
+            moduleRules = rules.get(MatildaPolicy.ALL_MODULES);
+        }
+        return moduleRules == null ? State.UNRESTRICTED : moduleRules;
+    }
+
+    /**
+     * Determinizes the trie of the patterns, each state of the automaton is the set of trie nodes that match the
+     * tokens so far. A literal token leads to the literal children and the * children of the set, any other token only
+     * to the * children.
+     */
+    private static State compile(Node root) {
+        Map<Set<Node>, State> states = new HashMap<>();
+        List<Set<Node>> pending = new ArrayList<>();
+        Set<Node> initial = Set.of(root);
+        states.put(initial, new State(initial));
+        pending.add(initial);
+        while (!pending.isEmpty()) {
+            Set<Node> nodes = pending.removeLast();
+            State state = states.get(nodes);
+            Set<Node> anyTargets = new LinkedHashSet<>();
+            Set<String> literals = new LinkedHashSet<>();
+            for (Node node : nodes) {
+                if (node.any != null) {
+                    anyTargets.add(node.any);
+                }
+                literals.addAll(node.literals.keySet());
+            }
+            for (String literal : literals) {
+                Set<Node> targets = new LinkedHashSet<>(anyTargets);
+                for (Node node : nodes) {
+                    Node target = node.literals.get(literal);
+                    if (target != null) {
+                        targets.add(target);
+                    }
+                }
+                state.literals.put(literal, target(states, pending, targets));
+            }
+            state.any = anyTargets.isEmpty() ? null : target(states, pending, anyTargets);
+        }
+        return states.get(initial);
+    }
+
+    private static State target(Map<Set<Node>, State> states, List<Set<Node>> pending, Set<Node> nodes) {
+        Set<Node> key = Set.copyOf(nodes);
+        State state = states.get(key);
+        if (state == null) {
+            state = new State(key);
+            states.put(key, state);
+            pending.add(key);
+        }
+        return state;
+    }
+
+    /**
+     * Node of the trie of the patterns, nodes are compared by identity
+     */
+    private static final class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private Node any;
+        private boolean accepts;
+        private boolean acceptsAnyArguments;
+
+        void add(String[] tokens, int token) {
+            if (token == tokens.length) {
+                accepts = true;
+                return;
+            }
+            switch (tokens[token]) {
+                case ANY_ARGUMENTS -> acceptsAnyArguments = true;
+                case ANY_ARGUMENT -> {
+                    if (any == null) {
+                        any = new Node();
+                    }
+                    any.add(tokens, token + 1);
+                }
+                default -> literals.computeIfAbsent(tokens[token], key -> new Node()).add(tokens, token + 1);
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return this == other;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+
+    /**
+     * State of the compiled automaton, only read after the policy has been compiled
+     */
+    private static final class State {
+        // State of modules without command rules
+        static final State UNRESTRICTED = new State(Set.of());
+        private final Map<String, State> literals = new HashMap<>();
+        // State of any token without a literal transition, null if there is none
+        private State any;
+        private final boolean accepts;
+        private final boolean acceptsAnyArguments;
+
+        State(Set<Node> nodes) {
+            boolean accepts = false;
+            boolean acceptsAnyArguments = false;
+            for (Node node : nodes) {
+                accepts |= node.accepts;
+                acceptsAnyArguments |= node.acceptsAnyArguments;
+            }
+            this.accepts = accepts;
+            this.acceptsAnyArguments = acceptsAnyArguments;
+        }
+
+        State next(String token) {
+            State next = literals.get(token);
+            return next != null ? next : any;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Policy that has been compiled ahead of time by {@link MatildaPolicyCompiler}. Loading the policy reads the file into
+ * a private buffer and validates its layout without parsing any rule, module names are looked up in the hash indexed
+ * module table when a module is resolved the first time. All other rules, e.g. rate limits, endpoints, commands and
+ * paths, are kept as text and compiled like the rules of a policy file when the policy is loaded. Changes of the file
+ * after it has been loaded never affect the loaded policy.
+ * <p>
+ * Layout of the file, all numbers are big endian:
+ * <pre>
+ * int  magic              0x004D5450
+ * int  version            2
+ * int  slot count         power of two
+ * int  rules offset       offset of the other rules in the file
+ * long all modules        bitmask of the operations allowed for every module
+ * slot count times:
+ *   int  name hash        String.hashCode() of the module name
+ *   int  name offset      offset of the module name in the file, -1 if the slot is empty
+ *   long allowed          bitmask of the operations allowed for the module, includes the all modules bitmask
+ * module names:
+ *   short length          number of bytes of the name
+ *   byte[] name           UTF-8 encoded module name e.g. "module gradle.worker"
+ * other rules:
+ *   int  rule count       number of rules
+ *   rule count times:
+ *     int  key length     number of bytes of the key
+ *     byte[] key          UTF-8 encoded key e.g. "matilda.network.connect.rate"
+ *     int  value length   number of bytes of the value
+ *     byte[] value        UTF-8 encoded value e.g. "module org.apache.logging.log4j:5"
+ * </pre>
+ * At least one slot is empty, a lookup of a module without rules ends at the first empty slot of its probe sequence.
+ * The index of a module is its slot number plus one, the index of modules without a rule is 0.
+ */
+final class MatildaCompiledPolicy extends MatildaPolicy {
+    static final int MAGIC = 0x004D5450;
+    static final int VERSION = 2;
+    private static final int RULES_OFFSET = 12;
+    private static final int ALL_MODULES_OFFSET = 16;
+    private static final int SLOTS_OFFSET = 24;
+    private static final int SLOT_SIZE = 16;
+    private static final int EMPTY_SLOT = -1;
+    // Content of the file, only read after it has been validated
+    private final ByteBuffer buffer;
+    private final int slotMask;
+    private final Properties properties;
+
+    private MatildaCompiledPolicy(ByteBuffer buffer, int slotCount, Properties properties) {
+        this.buffer = buffer;
+        this.slotMask = slotCount - 1;
+        this.properties = properties;
+    }
+
+    /**
+     * Checks if a file is a compiled policy by its magic number
+     * @param policyFile - path of the policy file
+     * @return boolean - true iff the file starts with the magic number of a compiled policy
+     * @throws IOException - if the file can't be read
+     */
+    static boolean isCompiledPolicy(Path policyFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(policyFile, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // reads until the magic number is complete or the file ends
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Loads a compiled policy, the file is read once into a buffer that is owned by the policy
+     * @param policyFile - path of the compiled policy
+     * @return MatildaCompiledPolicy - policy that reads the loaded file
+     * @throws IOException - if the file can't be read
+     * @throws IllegalArgumentException - if the file is not a valid compiled policy
+     */
+    static MatildaCompiledPolicy load(Path policyFile) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(policyFile));
+        if (buffer.capacity() < SLOTS_OFFSET || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a valid compiled policy: " + policyFile);
+        }
+        int slotCount = buffer.getInt(8);
+        if (slotCount <= 0 || Integer.bitCount(slotCount) != 1
+                || (long) SLOTS_OFFSET + (long) slotCount * SLOT_SIZE > buffer.capacity()) {
+            throw new IllegalArgumentException("Not a valid slot count in compiled policy: " + policyFile);
+        }
+        // Only the layout is validated, names are compared in place when a module is resolved
+        int namesOffset = SLOTS_OFFSET + slotCount * SLOT_SIZE;
+        boolean emptySlot = false;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int nameOffset = buffer.getInt(SLOTS_OFFSET + slot * SLOT_SIZE + 4);
+            if (nameOffset == EMPTY_SLOT) {
+                emptySlot = true;
+            } else if (nameOffset < namesOffset || nameOffset > buffer.capacity() - Short.BYTES
+                    || nameOffset + Short.BYTES + Short.toUnsignedInt(buffer.getShort(nameOffset)) > buffer.capacity()) {
+                throw new IllegalArgumentException("Not a valid module table in compiled policy: " + policyFile);
+            }
+        }
+        // a lookup of a module without rules probes until it finds an empty slot
+        if (!emptySlot) {
+            throw new IllegalArgumentException("Module table without an empty slot in compiled policy: " + policyFile);
+        }
+        return new MatildaCompiledPolicy(buffer, slotCount, readProperties(buffer, namesOffset, policyFile));
+    }
+
+    /**
+     * Reads the rules that are not part of the module table
+     * @param namesOffset - offset of the module names, the rules follow them
+     * @return Properties - rules in the format of System.properties
+     * @throws IllegalArgumentException - if the rules exceed the file
+     */
+    private static Properties readProperties(ByteBuffer buffer, int namesOffset, Path policyFile) {
+        int rulesOffset = buffer.getInt(RULES_OFFSET);
+        if (rulesOffset < namesOffset || rulesOffset > buffer.capacity() - Integer.BYTES) {
+            throw new IllegalArgumentException("Not a valid rules offset in compiled policy: " + policyFile);
+        }
+        buffer.position(rulesOffset);
+        int ruleCount = buffer.getInt();
+        Properties properties = new Properties();
+        for (int rule = 0; rule < ruleCount; rule++) {
+            properties.setProperty(readString(buffer, policyFile), readString(buffer, policyFile));
+        }
+        return properties;
+    }
+
+    private static String readString(ByteBuffer buffer, Path policyFile) {
+        int length = buffer.remaining() < Integer.BYTES ? -1 : buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Not a valid rule in compiled policy: " + policyFile);
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Returns the rules that are not part of the module table, they are compiled by the access control
+     * @return Properties - copy of the rules in the format of System.properties
+     */
+    Properties properties() {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    /**
+     * Writes a compiled policy, the file is replaced atomically so a watching JVM never loads a partially written file
+     * @param rules - bitmask of the allowed operations keyed by module name as used in the configuration
+     * @param properties - all other rules in the format of System.properties e.g. rate limits and endpoints
+     * @param policyFile - path of the compiled policy
+     * @throws IOException - if the file can't be written
+     */
+    static void write(Map<String, Long> rules, Properties properties, Path policyFile) throws IOException {
+        long allModules = rules.getOrDefault(ALL_MODULES, 0L);
+        int moduleCount = rules.containsKey(ALL_MODULES) ? rules.size() - 1 : rules.size();
+        // At most half of the slots are used, probe sequences stay short
+        int slotCount = 1;
+        while (slotCount < moduleCount * 2) {
+            slotCount <<= 1;
+        }
+        int namesOffset = SLOTS_OFFSET + slotCount * SLOT_SIZE;
+        int size = namesOffset;
+        for (String moduleName : rules.keySet()) {
+            int length = moduleName.getBytes(StandardCharsets.UTF_8).length;
+            if (length > 0xFFFF) {
+                throw new IllegalArgumentException("Module name is too long: " + moduleName);
+            }
+            size += ALL_MODULES.equals(moduleName) ? 0 : Short.BYTES + length;
+        }
+        int rulesOffset = size;
+        // sorted keys, compiling the same policy twice writes the same file
+        TreeSet<String> keys = new TreeSet<>(properties.stringPropertyNames());
+        size += Integer.BYTES;
+        for (String key : keys) {
+            size += 2 * Integer.BYTES + key.getBytes(StandardCharsets.UTF_8).length
+                    + properties.getProperty(key).getBytes(StandardCharsets.UTF_8).length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, slotCount).putInt(RULES_OFFSET, rulesOffset)
+                .putLong(ALL_MODULES_OFFSET, allModules);
+        for (int slot = 0; slot < slotCount; slot++) {
+            buffer.putInt(SLOTS_OFFSET + slot * SLOT_SIZE + 4, EMPTY_SLOT);
+        }
+        buffer.position(namesOffset);
+        for (Map.Entry<String, Long> rule : rules.entrySet()) {
+            if (ALL_MODULES.equals(rule.getKey())) {
+                continue;
+            }
+            byte[] name = rule.getKey().getBytes(StandardCharsets.UTF_8);
+            int hash = rule.getKey().hashCode();
+            int slot = spread(hash) & (slotCount - 1);
+            while (buffer.getInt(SLOTS_OFFSET + slot * SLOT_SIZE + 4) != EMPTY_SLOT) {
+                slot = (slot + 1) & (slotCount - 1);
+            }
+            int slotOffset = SLOTS_OFFSET + slot * SLOT_SIZE;
+            buffer.putInt(slotOffset, hash).putInt(slotOffset + 4, buffer.position())
+                    .putLong(slotOffset + 8, rule.getValue() | allModules);
+            buffer.putShort((short) name.length).put(name);
+        }
+        buffer.putInt(keys.size());
+        for (String key : keys) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] valueBytes = properties.getProperty(key).getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(keyBytes.length).put(keyBytes).putInt(valueBytes.length).put(valueBytes);
+        }
+        Path temporaryFile = policyFile.resolveSibling(policyFile.getFileName() + ".tmp");
+        Files.write(temporaryFile, buffer.array());
+        Files.move(temporaryFile, policyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    int indexOf(String moduleName) {
+        int hash = moduleName.hashCode();
+        byte[] name = null;
+        for (int slot = spread(hash) & slotMask; ; slot = (slot + 1) & slotMask) {
+            int slotOffset = SLOTS_OFFSET + slot * SLOT_SIZE;
+            int nameOffset = buffer.getInt(slotOffset + 4);
+            if (nameOffset == EMPTY_SLOT) {
+                return NO_RULES;
+            }
+            if (buffer.getInt(slotOffset) == hash) {
+                if (name == null) {
+                    name = moduleName.getBytes(StandardCharsets.UTF_8);
+                }
+                if (nameEquals(nameOffset, name)) {
+                    return slot + 1;
+                }
+            }
+        }
+    }
+
+    @Override
+    long allowedOperations(int index) {
+        return index == NO_RULES
+                ? buffer.getLong(ALL_MODULES_OFFSET)
+                : buffer.getLong(SLOTS_OFFSET + (index - 1) * SLOT_SIZE + 8);
+    }
+
+    @Override
+    int indexCount() {
+        return slotMask + 2;
+    }
+
+    /**
+     * Compares a module name of the file with the given name without copying it
+     * @param nameOffset - offset of the module name in the file
+     * @param name - UTF-8 encoded module name
+     * @return boolean - true iff both names are equal
+     */
+    private boolean nameEquals(int nameOffset, byte[] name) {
+        if (Short.toUnsignedInt(buffer.getShort(nameOffset)) != name.length) {
+            return false;
+        }
+        return buffer.slice(nameOffset + Short.BYTES, name.length).equals(ByteBuffer.wrap(name));
+    }
+
+    /**
+     * Spreads the higher bits of a hash, module names often share a prefix and differ only in their last characters
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.util.Properties;
+
+/**
+ * Compiled configuration of the checks, it is built completely before it is published with a single volatile
+ * write. Concurrent checks either see the previous or the new configuration, never a mix of both.
+ * @param policy - operations allowed per module
+ * @param denials - creates and logs the exceptions of denied checks
+ * @param rateLimits - calls per second of the allowed operations, null if no operation is limited
+ * @param endpoints - endpoints modules may connect or bind to, null if no module is restricted
+ * @param commands - commands modules may start, null if no module is restricted
+ * @param files - path prefixes modules may open files in, null if no module is restricted
+ */
+record MatildaConfiguration(MatildaPolicy policy, MatildaDenials denials, MatildaRateLimits rateLimits,
+                        MatildaEndpoints endpoints, MatildaCommands commands, MatildaFiles files) {
+
+    /**
+     * Loads, validates and compiles a configuration
+     * @param policy - compiled policy
+     * @param properties - all other rules in the format of System.properties
+     * @return MatildaConfiguration - compiled configuration
+     * @throws IllegalArgumentException - if a rule is not valid
+     */
+    static MatildaConfiguration of(MatildaPolicy policy, Properties properties) {
+        return new MatildaConfiguration(policy,
+                new MatildaDenials(properties.getProperty("matilda.denial.stacktrace", "full"),
+                        properties.getProperty("matilda.denial.log.interval", "10")),
+                MatildaRateLimits.of(properties), MatildaEndpoints.of(properties), MatildaCommands.of(properties),
+                MatildaFiles.of(properties));
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the exceptions of denied checks and logs the denials. Instead of a log entry per denial, the denials are
+ * counted per module and operation and a summary is logged at most once per interval, the first denial is logged
+ * right away. Configured via
+ * <pre>
+ * matilda.denial.stacktrace     full, once or none, once fills the stack trace of the first denial per module and
+ *                               operation only, default full
+ * matilda.denial.log.interval   seconds between two summaries, default 10
+ * </pre>
+ */
+final class MatildaDenials {
+
+    /**
+     * Which denials get a stack trace
+     */
+    enum StackTrace {
+        FULL,
+        ONCE,
+        NONE
+    }
+
+    private static final Logger logger = Logger.getLogger(MatildaDenials.class.getName());
+    private final StackTrace stackTrace;
+    private final long logIntervalNanos;
+    // Denials since the last summary keyed by module name, index is the operation code
+    private final ConcurrentHashMap<String, LongAdder[]> denials = new ConcurrentHashMap<>();
+    // Operations each module has been denied at least once keyed by module name, used to fill the stack trace once
+    private final ConcurrentHashMap<String, AtomicLong> deniedOperations = new ConcurrentHashMap<>();
+    // Time the next summary is due, the first denial is logged right away
+    private final AtomicLong nextSummary;
+
+    /**
+     * Creates the denial handling of an access control
+     * @param stackTrace - full, once or none
+     * @param logInterval - seconds between two summaries
+     * @throws IllegalArgumentException - if the configuration is not valid
+     */
+    MatildaDenials(String stackTrace, String logInterval) {
+        try {
+            this.stackTrace = StackTrace.valueOf(stackTrace.toUpperCase(Locale.ROOT));
+            this.logIntervalNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(logInterval));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Not a valid denial configuration: " + stackTrace + ", " + logInterval, e);
+        }
+        if (logIntervalNanos <= 0) {
+            throw new IllegalArgumentException("Not a valid denial log interval: " + logInterval);
+        }
+        this.nextSummary = new AtomicLong(System.nanoTime() - logIntervalNanos);
+    }
+
+    /**
+     * Records a denial and creates its exception
+     * @param module - module that called the operation
+     * @param operation - operation code of the guarded method
+     * @param operationName - name of the operation as used in the message
+     * @param endpoint - endpoint that is not allowed for the module, null if the operation itself is denied
+     * @param command - command that is not allowed for the module, null if the operation itself is denied
+     * @param file - file that is not allowed for the module, null if the operation itself is denied
+     * @param rateLimited - true if the operation is allowed but the module exceeded its rate limit
+     * @return MatildaSecurityException - exception that needs to be thrown by the check
+     */
+    MatildaSecurityException deny(Module module, int operation, String operationName, SocketAddress endpoint,
+                                  List<String> command, String file, boolean rateLimited) {
+        String moduleName = MatildaAccessControl.getModuleName(module);
+        LongAdder[] counters = denials.get(moduleName);
+        if (counters == null) {
+            counters = denials.computeIfAbsent(moduleName, key -> newCounters());
+        }
+        counters[operation].increment();
+        boolean writableStackTrace = switch (stackTrace) {
+            case FULL -> true;
+            case ONCE -> firstDenial(moduleName, operation);
+            case NONE -> false;
+        };
+        long now = System.nanoTime();
+        long due = nextSummary.get();
+        if (now - due >= 0 && nextSummary.compareAndSet(due, now + logIntervalNanos)) {
+            logSummary();
+        }
+        // the command is still owned by its ProcessBuilder, the exception keeps the command that has been checked
+        List<String> deniedCommand = command == null ? null : Collections.unmodifiableList(new ArrayList<>(command));
+        return new MatildaSecurityException(operationName, moduleName, endpoint, deniedCommand, file, rateLimited,
+                writableStackTrace);
+    }
+
+    /**
+     * Marks an operation as denied for a module
+     * @return boolean - true iff the operation has not been denied for the module before
+     */
+    private boolean firstDenial(String moduleName, int operation) {
+        long operationBit = 1L << operation;
+        AtomicLong operations = deniedOperations.get(moduleName);
+        if (operations == null) {
+            operations = deniedOperations.computeIfAbsent(moduleName, key -> new AtomicLong());
+        }
+        return (operations.get() & operationBit) == 0
+                && (operations.getAndUpdate(denied -> denied | operationBit) & operationBit) == 0;
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[MatildaRules.operationCount()];
+        for (int operation = 0; operation < counters.length; operation++) {
+            counters[operation] = new LongAdder();
+        }
+        return counters;
+    }
+
+    /**
+     * Logs the denials since the last summary and resets the counters, is called as well when the configuration is
+     * replaced
+     */
+    void logSummary() {
+        Map<String, Long> summary = new TreeMap<>();
+        denials.forEach((moduleName, counters) -> {
+            for (int operation = 0; operation < counters.length; operation++) {
+                long count = counters[operation].sumThenReset();
+                if (count > 0) {
+                    summary.merge(moduleName + "::"
+                            + MatildaRules.operationName(operation), count, Long::sum);
+                }
+            }
+        });
+        if (!summary.isEmpty()) {
+            logger.log(Level.WARNING, "Denied operations, summarized every {0} seconds: {1}",
+                    new Object[]{TimeUnit.NANOSECONDS.toSeconds(logIntervalNanos), summary});
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts the endpoints a module may connect to or bind to, configured per module with CIDR ranges or exact host
+ * names and a port, a port range or * for any port, IPv6 addresses are enclosed in brackets e.g.
+ * <pre>
+ * matilda.network.connect.endpoints=module org.apache.logging.log4j 10.20.0.0/16:514,module org.apache.logging.log4j logs.example.com:*
+ * matilda.server.bind.endpoints=module ALL-UNNAMED 0.0.0.0/0:8080-8089,module ALL-UNNAMED [::]/0:8080-8089
+ * </pre>
+ * A module without endpoint rules for an operation is not restricted, a module with rules may only use the endpoints
+ * of its rules. The rule of the module itself takes precedence over the rule for all unnamed modules and the rule for
+ * all modules.
+ * <p>
+ * The CIDR ranges of a module are compiled into a binary prefix trie per address family, a lookup walks at most one
+ * node per address bit, its cost is bounded by 32 steps for IPv4 and 128 steps for IPv6 regardless of the number of
+ * rules. Host names are resolved once when the rules are loaded and their addresses are added to the trie, resolved
+ * endpoints are only matched by their address as the caller chooses the name an address is created with. Unresolved
+ * endpoints, e.g. of connects through a proxy, are matched by their name. No name is ever resolved by a check, a host
+ * name that moves to other addresses needs the policy to be reloaded.
+ */
+final class MatildaEndpoints {
+    private static final Pattern ENDPOINT = Pattern.compile(
+            "(module \\S+) (\\[[0-9A-Fa-f:.]+]|[^\\s/:\\[\\]]+)(?:/(\\d{1,3}))?:(\\*|\\d{1,5}(?:-\\d{1,5})?)");
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(?:\\.\\d{1,3}){3}");
+    private static final int MAX_PORT = 0xFFFF;
+    // Endpoint rules per operation keyed by module name, index is the operation code, null if not restricted
+    private final Map<String, Rules[]> rules;
+    // Bitmask of the operations that are restricted for at least one module
+    private final long restrictedOperations;
+    // Rules per module keyed by module identity, resolved once per module
+    private final ConcurrentHashMap<Module, Rules[]> resolvedModules = new ConcurrentHashMap<>();
+    // Rules of calls without an application module on the stack, only the rules for all modules apply
+    private final Rules[] unknownCallerRules;
+
+    private MatildaEndpoints(Map<String, Rules[]> rules, long restrictedOperations) {
+        this.rules = rules;
+        this.restrictedOperations = restrictedOperations;
+        this.unknownCallerRules = resolve(null);
+    }
+
+    /**
+     * Loads, validates and compiles the endpoint rules e.g. matilda.network.connect.endpoints=module gradle.worker 10.0.0.0/8:443
+     * @param properties - Properties in the format of System.properties
+     * @return MatildaEndpoints - endpoint rules or null if no operation is restricted
+     * @throws IllegalArgumentException - if an endpoint rule is not valid
+     */
+    static MatildaEndpoints of(Properties properties) {
+        Map<String, RulesBuilder[]> builders = new HashMap<>();
+        long restrictedOperations = 0;
+        for (int operation = 0; operation < MatildaRules.operationCount(); operation++) {
+            String property = endpointProperty(operation);
+            String endpoints = property == null ? "" : properties.getProperty(property, "");
+            if (endpoints.isEmpty()) {
+                continue;
+            }
+            for (String endpoint : endpoints.split(",")) {
+                Matcher matcher = ENDPOINT.matcher(endpoint);
+                if (!matcher.matches()) {
+                    throw new IllegalArgumentException("Not a valid endpoint: " + endpoint);
+                }
+                RulesBuilder[] moduleBuilders = builders.computeIfAbsent(matcher.group(1),
+                        key -> new RulesBuilder[MatildaRules.operationCount()]);
+                if (moduleBuilders[operation] == null) {
+                    moduleBuilders[operation] = new RulesBuilder();
+                }
+                moduleBuilders[operation].add(endpoint, matcher.group(2), matcher.group(3), matcher.group(4));
+            }
+            restrictedOperations |= 1L << operation;
+        }
+        if (restrictedOperations == 0) {
+            return null;
+        }
+        Map<String, Rules[]> rules = new HashMap<>();
+        builders.forEach((module, moduleBuilders) -> {
+            Rules[] moduleRules = new Rules[moduleBuilders.length];
+            for (int operation = 0; operation < moduleBuilders.length; operation++) {
+                moduleRules[operation] = moduleBuilders[operation] == null ? null : moduleBuilders[operation].build();
+            }
+            rules.put(module, moduleRules);
+        });
+        return new MatildaEndpoints(rules, restrictedOperations);
+    }
+
+    /**
+     * Returns the property that configures the endpoints of an operation e.g. matilda.network.connect.endpoints
+     * @param operation - operation code of the guarded method
+     * @return String - name of the property or null if the operation has no endpoint
+     */
+    static String endpointProperty(int operation) {
+        return switch (operation) {
+            case MatildaAccessControl.SOCKET_CONNECT -> "matilda.network.connect.endpoints";
+            case MatildaAccessControl.SERVER_SOCKET_BIND -> "matilda.server.bind.endpoints";
+            default -> null;
+        };
+    }
+
+    /**
+     * Checks if an operation is restricted for at least one module
+     * @param operation - operation code of the guarded method
+     * @return boolean - true iff checks of the operation need to know the endpoint
+     */
+    boolean restricts(int operation) {
+        return (restrictedOperations & (1L << operation)) != 0;
+    }
+
+    /**
+     * Checks if a module may use an endpoint
+     * @param module - module that calls the operation, null if there is no application frame on the stack
+     * @param operation - operation code of the guarded method
+     * @param endpoint - endpoint of the operation, null if it is not known
+     * @return boolean - true iff the module is not restricted or one of its rules matches the endpoint
+     */
+    boolean allows(Module module, int operation, SocketAddress endpoint) {
+        if (!restricts(operation)) {
+            return true;
+        }
+        Rules[] moduleRules = module == null ? unknownCallerRules : resolvedModules.get(module);
+        if (moduleRules == null) {
+            moduleRules = resolvedModules.computeIfAbsent(module, this::resolve);
+        }
+        Rules operationRules = moduleRules[operation];
+        return operationRules == null
+                || endpoint instanceof InetSocketAddress address && operationRules.matches(address);
+    }
+
+    private Rules[] resolve(Module module) {
+        Rules[] moduleRules = module == null ? null
+                : rules.get(module.isNamed() ? module.toString() : MatildaPolicy.ALL_UNNAMED);
+        Rules[] allModulesRules = rules.get(MatildaPolicy.ALL_MODULES);
+        Rules[] resolved = new Rules[MatildaRules.operationCount()];
+        for (int operation = 0; operation < resolved.length; operation++) {
+            resolved[operation] = moduleRules != null && moduleRules[operation] != null ? moduleRules[operation]
+                    : allModulesRules != null ? allModulesRules[operation] : null;
+        }
+        return resolved;
+    }
+
+    /**
+     * Compiled endpoint rules of a module and operation
+     */
+    private record Rules(PrefixTrie ipv4, PrefixTrie ipv6, Map<String, int[]> hostNames) {
+
+        boolean matches(InetSocketAddress endpoint) {
+            int port = endpoint.getPort();
+            InetAddress address = endpoint.getAddress();
+            if (address != null) {
+                PrefixTrie trie = address instanceof Inet4Address ? ipv4 : ipv6;
+                return trie.matches(address.getAddress(), port);
+            }
+            if (hostNames.isEmpty()) {
+                return false;
+            }
+            int[] ports = hostNames.get(endpoint.getHostString().toLowerCase(Locale.ROOT));
+            return ports != null && PrefixTrie.matchesPort(ports, port);
+        }
+    }
+
+    /**
+     * Collects the endpoint rules of a module and operation
+     */
+    private static final class RulesBuilder {
+        private final PrefixTrie.Builder ipv4 = new PrefixTrie.Builder();
+        private final PrefixTrie.Builder ipv6 = new PrefixTrie.Builder();
+        private final Map<String, int[]> hostNames = new HashMap<>();
+
+        void add(String endpoint, String host, String prefixLength, String ports) {
+            int[] portRange = parsePorts(endpoint, ports);
+            boolean literal = host.startsWith("[") || IPV4.matcher(host).matches();
+            if (!literal) {
+                if (prefixLength != null) {
+                    throw new IllegalArgumentException("Not a valid endpoint: " + endpoint);
+                }
+                hostNames.merge(host.toLowerCase(Locale.ROOT), portRange, PrefixTrie::concat);
+                for (InetAddress hostAddress : resolve(host)) {
+                    byte[] address = hostAddress.getAddress();
+                    (address.length == 4 ? ipv4 : ipv6).add(address, address.length * Byte.SIZE, portRange);
+                }
+                return;
+            }
+            byte[] address;
+            try {
+                address = InetAddress.ofLiteral(host.startsWith("[") ? host.substring(1, host.length() - 1) : host)
+                        .getAddress();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Not a valid endpoint: " + endpoint, e);
+            }
+            int length = prefixLength == null ? address.length * Byte.SIZE : Integer.parseInt(prefixLength);
+            if (length > address.length * Byte.SIZE) {
+                throw new IllegalArgumentException("Not a valid endpoint: " + endpoint);
+            }
+            (address.length == 4 ? ipv4 : ipv6).add(address, length, portRange);
+        }
+
+        /**
+         * Resolves the host name of a rule, a name that can't be resolved only matches unresolved endpoints
+         * @param host - host name of the rule
+         * @return InetAddress[] - addresses of the host, empty if the name can't be resolved
+         */
+        private static InetAddress[] resolve(String host) {
+            try {
+                return InetAddress.getAllByName(host);
+            } catch (UnknownHostException e) {
+                return new InetAddress[0];
+            }
+        }
+
+        Rules build() {
+            return new Rules(ipv4.build(), ipv6.build(), Map.copyOf(hostNames));
+        }
+
+        private static int[] parsePorts(String endpoint, String ports) {
+            if (ports.equals("*")) {
+                return new int[]{0, MAX_PORT};
+            }
+            int separator = ports.indexOf('-');
+            int from = Integer.parseInt(separator < 0 ? ports : ports.substring(0, separator));
+            int to = separator < 0 ? from : Integer.parseInt(ports.substring(separator + 1));
+            if (from > to || to > MAX_PORT) {
+                throw new IllegalArgumentException("Not a valid endpoint: " + endpoint);
+            }
+            return new int[]{from, to};
+        }
+    }
+
+    /**
+     * Binary trie of address prefixes, each node that ends a prefix holds the port ranges of the prefix. The nodes are
+     * stored in arrays, the children of node n are at index 2n and 2n + 1 of {@link #children}.
+     */
+    private static final class PrefixTrie {
+        // Index of the child per node and bit, 0 if there is no child as the root is never a child
+        private final int[] children;
+        // Port ranges per node as pairs of first and last port, null if no prefix ends at the node
+        private final int[][] ports;
+
+        private PrefixTrie(int[] children, int[][] ports) {
+            this.children = children;
+            this.ports = ports;
+        }
+
+        /**
+         * Walks the trie along the bits of the address, any prefix on the way that allows the port matches
+         */
+        boolean matches(byte[] address, int port) {
+            int node = 0;
+            int bits = address.length * Byte.SIZE;
+            for (int bit = 0; ; bit++) {
+                int[] nodePorts = ports[node];
+                if (nodePorts != null && matchesPort(nodePorts, port)) {
+                    return true;
+                }
+                if (bit == bits) {
+                    return false;
+                }
+                node = children[2 * node + ((address[bit >>> 3] >>> (7 - (bit & 7))) & 1)];
+                if (node == 0) {
+                    return false;
+                }
+            }
+        }
+
+        static boolean matchesPort(int[] portRanges, int port) {
+            for (int range = 0; range < portRanges.length; range += 2) {
+                if (port >= portRanges[range] && port <= portRanges[range + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        static int[] concat(int[] first, int[] second) {
+            int[] ranges = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, ranges, first.length, second.length);
+            return ranges;
+        }
+
+        /**
+         * Collects the prefixes before the trie is compiled into arrays
+         */
+        private static final class Builder {
+            // the root is the node of the prefix length 0
+            private final List<int[]> children = new ArrayList<>();
+            private final List<int[]> ports = new ArrayList<>();
+
+            Builder() {
+                children.add(new int[2]);
+                ports.add(null);
+            }
+
+            void add(byte[] address, int prefixLength, int[] portRange) {
+                int node = 0;
+                for (int bit = 0; bit < prefixLength; bit++) {
+                    int next = (address[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+                    if (children.get(node)[next] == 0) {
+                        children.get(node)[next] = children.size();
+                        children.add(new int[2]);
+                        ports.add(null);
+                    }
+                    node = children.get(node)[next];
+                }
+                ports.set(node, ports.get(node) == null ? portRange : concat(ports.get(node), portRange));
+            }
+
+            PrefixTrie build() {
+                int[] compiledChildren = new int[children.size() * 2];
+                for (int node = 0; node < children.size(); node++) {
+                    compiledChildren[2 * node] = children.get(node)[0];
+                    compiledChildren[2 * node + 1] = children.get(node)[1];
+                }
+                return new PrefixTrie(compiledChildren, ports.toArray(new int[0][]));
+            }
+        }
+    }
+}
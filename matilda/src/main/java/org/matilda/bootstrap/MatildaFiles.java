@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.File;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts the files a module may open to path prefixes, configured per module e.g.
+ * <pre>
+ * matilda.file.open.paths=module com.example.app /srv/app/data,module com.example.app /etc/app/app.properties
+ * </pre>
+ * A module without path rules may open any file, a module with rules only the files within one of its prefixes.
+ * The rule of the module itself takes precedence over the rule for all unnamed modules and the rule for all modules.
+ * <p>
+ * The prefixes of a module are compiled into a trie of path names, a lookup costs one hash lookup per name of the
+ * normalized path regardless of the number of rules. Files are opened far more often than processes are started,
+ * the verdict for a directory is therefore memoized per module and keyed by the directory as it has been passed,
+ * an open in a known directory neither normalizes its path nor walks the trie. Paths are normalized but symbolic
+ * links are not resolved, a link within an allowed prefix may point anywhere. Files of other file systems than the
+ * default file system, e.g. of a zip file system, are not restricted, opening their backing file is.
+ */
+final class MatildaFiles {
+    private static final Pattern PATH = Pattern.compile("(module \\S+) (\\S.*)");
+    // Number of directories memoized per module, directories beyond are checked against the trie on every open
+    private static final int MAX_DIRECTORIES = 4096;
+    private static final FileSystem DEFAULT_FILE_SYSTEM = FileSystems.getDefault();
+    // Trie of the path prefixes keyed by module name
+    private final Map<String, Node> rules;
+    // Rules per module keyed by module identity, modules without rules are mapped to UNRESTRICTED
+    private final ConcurrentHashMap<Module, ModuleRules> resolvedModules = new ConcurrentHashMap<>();
+    // Rules of opens without an application module on the stack, only the rule for all modules applies
+    private final ModuleRules unknownCallerRules;
+
+    private MatildaFiles(Map<String, Node> rules) {
+        this.rules = rules;
+        this.unknownCallerRules = resolve(null);
+    }
+
+    /**
+     * Loads and validates the path rules e.g. matilda.file.open.paths=module gradle.worker /tmp
+     * @param properties - Properties in the format of System.properties
+     * @return MatildaFiles - path rules or null if no module is restricted
+     * @throws IllegalArgumentException - if a path rule is not valid
+     */
+    static MatildaFiles of(Properties properties) {
+        String paths = properties.getProperty("matilda.file.open.paths", "");
+        if (paths.isEmpty()) {
+            return null;
+        }
+        Map<String, Node> rules = new HashMap<>();
+        for (String rule : paths.split(",")) {
+            Matcher matcher = PATH.matcher(rule.strip());
+            Path prefix;
+            try {
+                prefix = matcher.matches() ? Path.of(matcher.group(2)) : null;
+            } catch (InvalidPathException e) {
+                prefix = null;
+            }
+            if (prefix == null || !prefix.isAbsolute()) {
+                throw new IllegalArgumentException("Not a valid path: " + rule);
+            }
+            rules.computeIfAbsent(matcher.group(1), key -> new Node()).add(prefix.normalize());
+        }
+        return new MatildaFiles(rules);
+    }
+
+    /**
+     * Checks if a module may open a file
+     * @param module - module that opens the file, null if there is no application frame on the stack
+     * @param file - File or Path that is opened, null if it is not known
+     * @return boolean - true iff the module is not restricted or the file is within one of its prefixes
+     */
+    boolean allows(Module module, Object file) {
+        ModuleRules moduleRules = module == null ? unknownCallerRules : resolvedModules.get(module);
+        if (moduleRules == null) {
+            moduleRules = resolvedModules.computeIfAbsent(module, this::resolve);
+        }
+        if (moduleRules == ModuleRules.UNRESTRICTED) {
+            return true;
+        }
+        String path;
+        if (file instanceof File ioFile) {
+            path = ioFile.getPath();
+        } else if (file instanceof Path nioPath) {
+            if (nioPath.getFileSystem() != DEFAULT_FILE_SYSTEM) {
+                return true;
+            }
+            path = nioPath.toString();
+        } else {
+            return false;
+        }
+        int separator = path.lastIndexOf(File.separatorChar);
+        if (!isFileName(path, separator + 1)) {
+            // the last name is not a file within the directory, the path is checked as a whole
+            return moduleRules.prefixes.covers(normalize(path));
+        }
+        // empty for a file in the working directory
+        String directory = path.substring(0, separator + 1);
+        Boolean covered = moduleRules.directories.get(directory);
+        if (covered == null) {
+            covered = moduleRules.prefixes.covers(normalize(directory));
+            if (moduleRules.directories.size() < MAX_DIRECTORIES) {
+                moduleRules.directories.putIfAbsent(directory, covered);
+            }
+        }
+        // a prefix may be a single file within a directory that is not covered
+        return covered || moduleRules.prefixes.covers(normalize(path));
+    }
+
+    private ModuleRules resolve(Module module) {
+        Node moduleRules = module == null ? null
+                : rules.get(module.isNamed() ? module.toString() : MatildaPolicy.ALL_UNNAMED);
+        if (moduleRules == null) {
+            moduleRules = rules.get(MatildaPolicy.ALL_MODULES);
+        }
+        return moduleRules == null ? ModuleRules.UNRESTRICTED : new ModuleRules(moduleRules);
+    }
+
+    /**
+     * Checks if the last name of a path is the name of a file within its directory, it is not if it is empty, . or ..
+     */
+    private static boolean isFileName(String path, int start) {
+        int length = path.length() - start;
+        return length > 2 || length > 0 && !path.startsWith(length == 1 ? "." : "..", start);
+    }
+
+    /**
+     * Resolves a path against the working directory and removes . and .. names
+     * @return Path - absolute and normalized path, null if the path is not valid
+     */
+    private static Path normalize(String path) {
+        try {
+            return Path.of(path).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Prefixes of a module and the memoized verdicts of the directories it opened files in
+     */
+    private record ModuleRules(Node prefixes, ConcurrentHashMap<String, Boolean> directories) {
+        // Rules of modules without path rules
+        static final ModuleRules UNRESTRICTED = new ModuleRules(new Node());
+
+        ModuleRules(Node prefixes) {
+            this(prefixes, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Node of the trie of the prefixes, the root node holds the roots of the paths e.g. /
+     */
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        // true if the path of the node is a prefix, every path below is covered
+        private boolean prefix;
+
+        void add(Path path) {
+            Node node = children.computeIfAbsent(path.getRoot().toString(), key -> new Node());
+            for (Path name : path) {
+                node = node.children.computeIfAbsent(name.toString(), key -> new Node());
+            }
+            node.prefix = true;
+        }
+
+        boolean covers(Path path) {
+            if (path == null) {
+                return false;
+            }
+            Node node = children.get(path.getRoot().toString());
+            for (int name = 0; node != null && !node.prefix && name < path.getNameCount(); name++) {
+                node = node.children.get(path.getName(name).toString());
+            }
+            return node != null && node.prefix;
+        }
+    }
+}
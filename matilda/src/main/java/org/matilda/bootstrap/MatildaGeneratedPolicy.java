@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.Label;
+import java.lang.classfile.instruction.SwitchCase;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Policy whose bitmasks are returned by an evaluator generated for the policy, module names are still resolved by
+ * the compiled policy it was generated from. The evaluator is a hidden class, it is unloaded together with the policy
+ * once a reloaded policy replaced it.
+ */
+@SuppressWarnings("preview")
+final class MatildaGeneratedPolicy extends MatildaPolicy {
+    // Each index takes 4 bytes of the tableswitch, larger policies stay interpreted to keep the method well below 64KB
+    static final int MAX_INDEXES = 8192;
+    private static final ClassDesc CD_EVALUATOR = ClassDesc.of("org.matilda.bootstrap.MatildaPolicyEvaluator");
+    // Hidden classes get a unique suffix appended to this name
+    private static final ClassDesc CD_GENERATED = ClassDesc.of("org.matilda.bootstrap.MatildaGeneratedEvaluator");
+    private static final MethodTypeDesc MTD_ALLOWED_OPERATIONS = MethodTypeDesc.of(ConstantDescs.CD_long, ConstantDescs.CD_int);
+    private static final Logger logger = Logger.getLogger(MatildaGeneratedPolicy.class.getName());
+    private final MatildaPolicy compiledPolicy;
+    private final MatildaPolicyEvaluator evaluator;
+
+    private MatildaGeneratedPolicy(MatildaPolicy compiledPolicy, MatildaPolicyEvaluator evaluator) {
+        this.compiledPolicy = compiledPolicy;
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Generates the evaluator of a compiled policy
+     * @param compiledPolicy - policy the evaluator is generated for
+     * @return MatildaPolicy - policy backed by the generated evaluator, or the compiled policy if it has too many
+     * indexes or the evaluator can't be generated
+     */
+    static MatildaPolicy generate(MatildaPolicy compiledPolicy) {
+        int indexCount = compiledPolicy.indexCount();
+        if (indexCount > MAX_INDEXES) {
+            return compiledPolicy;
+        }
+        long[] allowedOperations = new long[indexCount];
+        for (int index = 0; index < indexCount; index++) {
+            allowedOperations[index] = compiledPolicy.allowedOperations(index);
+        }
+        try {
+            return new MatildaGeneratedPolicy(compiledPolicy, generateEvaluator(allowedOperations));
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Evaluator can't be generated, the policy is interpreted", e);
+            return compiledPolicy;
+        }
+    }
+
+    /**
+     * Generates and defines the hidden class of an evaluator
+     * @param allowedOperations - bitmask of the allowed operations per module index
+     * @return MatildaPolicyEvaluator - instance of the hidden class
+     */
+    static MatildaPolicyEvaluator generateEvaluator(long[] allowedOperations) {
+        if (allowedOperations.length == 0 || allowedOperations.length > MAX_INDEXES) {
+            throw new IllegalArgumentException("Evaluator can't be generated for " + allowedOperations.length + " indexes");
+        }
+        byte[] classBytes = ClassFile.of().build(CD_GENERATED, classBuilder -> classBuilder
+                .withFlags(ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC)
+                .withInterfaceSymbols(CD_EVALUATOR)
+                .withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_PUBLIC, codeBuilder -> codeBuilder
+                        .aload(0)
+                        .invokespecial(ConstantDescs.CD_Object, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                        .return_())
+                .withMethodBody("allowedOperations", MTD_ALLOWED_OPERATIONS, ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL, codeBuilder -> {
+                    // Indexes with the same bitmask share one branch, there are far less distinct bitmasks than modules
+                    Map<Long, Label> branches = new LinkedHashMap<>();
+                    Label denied = codeBuilder.newLabel();
+                    branches.put(0L, denied);
+                    List<SwitchCase> cases = new ArrayList<>(allowedOperations.length);
+                    for (int index = 0; index < allowedOperations.length; index++) {
+                        cases.add(SwitchCase.of(index, branches.computeIfAbsent(allowedOperations[index], mask -> codeBuilder.newLabel())));
+                    }
+                    codeBuilder.iload(codeBuilder.parameterSlot(0))
+                            .tableswitch(0, allowedOperations.length - 1, denied, cases);
+                    for (Map.Entry<Long, Label> branch : branches.entrySet()) {
+                        codeBuilder.labelBinding(branch.getValue())
+                                .loadConstant(branch.getKey())
+                                .lreturn();
+                    }
+                }));
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            return (MatildaPolicyEvaluator) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Generated evaluator can't be instantiated", e);
+        }
+    }
+
+    @Override
+    int indexOf(String moduleName) {
+        return compiledPolicy.indexOf(moduleName);
+    }
+
+    @Override
+    long allowedOperations(int index) {
+        return evaluator.allowedOperations(index);
+    }
+
+    @Override
+    int indexCount() {
+        return compiledPolicy.indexCount();
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the permission checks per module and operation and a latency histogram per operation. All counters
+ * are striped {@link LongAdder}s, concurrent checks on many cores don't contend on a shared cache line.
+ * The histogram has log-scale buckets, bucket n counts the checks that took 2^(n-1) up to 2^n - 1 nanoseconds and
+ * bucket 0 the checks that took less than a nanosecond.
+ * Metrics can be disabled with -Dmatilda.metrics=false.
+ * <p>
+ * The snapshots only return JDK types, they are read by the MBean of the agent which is loaded by another class loader.
+ */
+public final class MatildaMetrics {
+    // Number of buckets of a latency histogram, enough for any duration in nanoseconds
+    private static final int BUCKETS = Long.SIZE;
+    private static final int OPERATIONS = MatildaRules.operationCount();
+    // Allowed and denied checks per module, index operation * 2 counts denied and operation * 2 + 1 allowed checks
+    private static final ConcurrentHashMap<Module, LongAdder[]> CHECKS = new ConcurrentHashMap<>();
+    // Checks without an application module on the stack
+    private static final LongAdder[] UNKNOWN_CALLER_CHECKS = newCounters(null);
+    private static final LongAdder[][] LATENCIES = new LongAdder[OPERATIONS][BUCKETS];
+
+    static {
+        for (LongAdder[] histogram : LATENCIES) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                histogram[bucket] = new LongAdder();
+            }
+        }
+    }
+
+    private MatildaMetrics() {
+    }
+
+    /**
+     * Counts a check, does not allocate once the module has been counted before
+     * @param module - module that called the operation
+     * @param operation - operation code of the guarded method
+     * @param allowed - true iff the operation has been allowed
+     */
+    static void recordCheck(Module module, int operation, boolean allowed) {
+        LongAdder[] counters = module == null ? UNKNOWN_CALLER_CHECKS : CHECKS.get(module);
+        if (counters == null) {
+            counters = CHECKS.computeIfAbsent(module, MatildaMetrics::newCounters);
+        }
+        counters[operation * 2 + (allowed ? 1 : 0)].increment();
+    }
+
+    /**
+     * Adds the duration of a check to the histogram of the operation
+     * @param operation - operation code of the guarded method
+     * @param nanos - duration of the check
+     */
+    static void recordLatency(int operation, long nanos) {
+        LATENCIES[operation][BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0))].increment();
+    }
+
+    private static LongAdder[] newCounters(Module module) {
+        LongAdder[] counters = new LongAdder[OPERATIONS * 2];
+        for (int counter = 0; counter < counters.length; counter++) {
+            counters[counter] = new LongAdder();
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the number of allowed checks
+     * @return Map - number of checks keyed by "module::operation"
+     */
+    public static Map<String, Long> allowedChecks() {
+        return checks(true);
+    }
+
+    /**
+     * Returns the number of denied checks
+     * @return Map - number of checks keyed by "module::operation"
+     */
+    public static Map<String, Long> deniedChecks() {
+        return checks(false);
+    }
+
+    /**
+     * Returns the latency histograms of all operations
+     * @return Map - number of checks per bucket keyed by operation
+     */
+    public static Map<String, long[]> checkLatencies() {
+        Map<String, long[]> histograms = new HashMap<>();
+        for (int operation = 0; operation < OPERATIONS; operation++) {
+            long[] histogram = new long[BUCKETS];
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                histogram[bucket] = LATENCIES[operation][bucket].sum();
+            }
+            histograms.put(MatildaRules.operationName(operation), histogram);
+        }
+        return histograms;
+    }
+
+    private static Map<String, Long> checks(boolean allowed) {
+        Map<String, Long> checks = new HashMap<>();
+        CHECKS.forEach((module, counters) -> addChecks(checks, module, counters, allowed));
+        addChecks(checks, null, UNKNOWN_CALLER_CHECKS, allowed);
+        return checks;
+    }
+
+    private static void addChecks(Map<String, Long> checks, Module module, LongAdder[] counters, boolean allowed) {
+        String moduleName = MatildaAccessControl.getModuleName(module);
+        for (int operation = 0; operation < OPERATIONS; operation++) {
+            long count = counters[operation * 2 + (allowed ? 1 : 0)].sum();
+            if (count > 0) {
+                checks.merge(moduleName + "::" + MatildaRules.operationName(operation), count, Long::sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of a permission check, the event is disabled by default and can be enabled in a recording
+ * e.g. -XX:StartFlightRecording:settings=profile,matilda.PermissionCheck#enabled=true
+ * The class is only loaded if the jdk.jfr module is present.
+ */
+@Name("matilda.PermissionCheck")
+@Label("Permission Check")
+@Category("Matilda")
+@Description("Permission check of a guarded operation")
+@Enabled(false)
+@Threshold("0 ms")
+@StackTrace(false)
+final class MatildaPermissionCheckEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Caller Module")
+    String callerModule;
+
+    @Label("Allowed")
+    boolean allowed;
+
+    @Label("Stack Walk Depth")
+    @Description("Number of frames walked to find the calling module, 0 if the module is known at the call site")
+    int stackWalkDepth;
+}
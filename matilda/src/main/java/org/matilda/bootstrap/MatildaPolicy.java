@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled and immutable form of the Matilda configuration. Every module name of the configuration is resolved to a
+ * dense index and each index maps to a bitmask of the operations the module is allowed to call, bit n is set iff the
+ * operation with the code n is allowed. A check is a single lookup of the bitmask and a bit test, independent of the
+ * number of operations and modules.
+ * Modules are resolved to their index once per policy, a new policy always comes with a new and empty resolution cache.
+ *
+ * @see MatildaArrayPolicy for a policy compiled from properties
+ * @see MatildaCompiledPolicy for a policy that is compiled ahead of time
+ * @see MatildaGeneratedPolicy for a policy that is evaluated by a generated class
+ */
+abstract class MatildaPolicy {
+    /*
+     * Name that grants permissions to code of all unnamed modules e.g. code on the classpath, like --add-opens does.
+     * Unnamed modules have no name of their own, without a rule for this name they are denied every operation.
+     */
+    static final String ALL_UNNAMED = "module ALL-UNNAMED";
+    // Name that grants permissions to every module
+    static final String ALL_MODULES = "module *";
+    // Index of all modules without a rule of their own, its bitmask holds the operations allowed for every module
+    static final int NO_RULES = 0;
+    /*
+     * Index per module keyed by module identity (Module does not override equals / hashCode). Indexes below 128 fit
+     * into the Integer cache, boxing and unboxing do not allocate.
+     */
+    private final ConcurrentHashMap<Module, Integer> resolvedModules = new ConcurrentHashMap<>();
+
+    /**
+     * Checks if a module is allowed to call an operation
+     * @param module - module that calls the operation
+     * @param operation - operation code of the guarded method
+     * @return boolean - true iff the module is allowed to call the operation
+     */
+    final boolean allows(Module module, int operation) {
+        return (allowedOperations(indexOf(module)) & (1L << operation)) != 0;
+    }
+
+    /**
+     * Checks if an operation is allowed for every module, checks of such an operation can be skipped entirely
+     * @param operation - operation code of the guarded method
+     * @return boolean - true iff the policy allows the operation for every module
+     */
+    final boolean allowsAllModules(int operation) {
+        return (allowedOperations(NO_RULES) & (1L << operation)) != 0;
+    }
+
+    /**
+     * Looks up the index of a module name of the configuration
+     * @param moduleName - name as used in the configuration e.g. "module gradle.worker"
+     * @return int - index of the module or {@link #NO_RULES} if there is no rule for the module
+     */
+    abstract int indexOf(String moduleName);
+
+    /**
+     * Returns the bitmask of the allowed operations of an index, the operations allowed for every module are included
+     * @param index - index of a module as returned by {@link #indexOf(String)}
+     * @return long - bitmask of the operations the module is allowed to call
+     */
+    abstract long allowedOperations(int index);
+
+    /**
+     * Returns the number of indexes of the policy, including the index of modules without a rule
+     * @return int - valid indexes are 0 to indexCount - 1
+     */
+    abstract int indexCount();
+
+    /**
+     * Resolves the index of a module, the index is computed once per module and served from the cache afterwards
+     * @param module - module that calls an operation, null if there is no application frame on the stack
+     * @return int - index of the bitmask of the module, a call without a module only gets the operations allowed for
+     * every module
+     */
+    private int indexOf(Module module) {
+        if (module == null) {
+            return NO_RULES;
+        }
+        Integer cached = resolvedModules.get(module);
+        if (cached != null) {
+            return cached;
+        }
+        int index = indexOf(module.isNamed() ? module.toString() : ALL_UNNAMED);
+        resolvedModules.putIfAbsent(module, index);
+        return index;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Compiles a policy file in the properties format into the binary format of {@link MatildaCompiledPolicy}, the policy
+ * is validated once by the compiler and the JVM only reads the compiled file at startup.
+ * Usage: java --enable-preview -cp matilda-bootstrap.jar org.matilda.bootstrap.MatildaPolicyCompiler
+ * &lt;policy.properties&gt; &lt;policy.bin&gt;
+ */
+public final class MatildaPolicyCompiler {
+
+    private MatildaPolicyCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: MatildaPolicyCompiler <policy.properties> <policy.bin>");
+        }
+        compile(Path.of(args[0]), Path.of(args[1]));
+    }
+
+    /**
+     * Validates and compiles a policy file
+     * @param source - policy file using the keys of the System.properties e.g. matilda.runtime.exit.allow=module gradle.worker
+     * @param target - path of the compiled policy, an existing file is replaced atomically
+     * @throws IOException - if the source can't be read or the target can't be written
+     * @throws IllegalArgumentException - if the source contains an invalid configuration
+     */
+    public static void compile(Path source, Path target) throws IOException {
+        // only the side-effect free rules are used, the access control of the compiling JVM is never initialized
+        Properties properties = MatildaRules.loadPolicyFile(source);
+        MatildaRules.validateConfiguration(properties);
+        // the allowed operations are compiled into the module table, all other rules are kept as they are
+        Properties otherRules = new Properties();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.endsWith(".allow")) {
+                otherRules.setProperty(key, properties.getProperty(key));
+            }
+        }
+        MatildaCompiledPolicy.write(MatildaRules.policyRules(properties), otherRules, target);
+    }
+}
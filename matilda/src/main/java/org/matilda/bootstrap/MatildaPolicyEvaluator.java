@@ -0,0 +1,34 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+/**
+ * Decision function of a policy, returns the bitmask of the operations a module index is allowed to call.
+ * Evaluators are generated per policy version as a hidden class, the decision is a single tableswitch over the module
+ * indexes with the bitmasks as constants, which the JIT can fold into the checks.
+ *
+ * @see MatildaGeneratedPolicy
+ */
+interface MatildaPolicyEvaluator {
+
+    /**
+     * Returns the bitmask of the allowed operations of a module index
+     * @param index - index of a module, indexes without a bitmask of their own are not allowed any operation
+     * @return long - bitmask of the operations the module is allowed to call
+     */
+    long allowedOperations(int index);
+}
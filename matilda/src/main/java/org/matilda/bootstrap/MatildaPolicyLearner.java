@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Learning mode of Matilda, enabled with -Dmatilda.learning.file=&lt;file&gt;. All operations are allowed and every
+ * distinct pair of calling module and operation is recorded. When the JVM shuts down the pairs are written as a
+ * policy file that grants exactly the recorded operations, it can be passed via -Dmatilda.policy.file.
+ * Operations called without an application module on the stack, e.g. by the threads of HttpClient, are allowed and
+ * noted in a comment of the file. Only a grant for module * would allow them, that grant is left to the reviewer.
+ * <p>
+ * Each module has a bitmask of the operations it has been seen calling, once a pair has been recorded checking it
+ * again is a map lookup and a bit test.
+ */
+public final class MatildaPolicyLearner {
+    private static final Logger logger = Logger.getLogger(MatildaPolicyLearner.class.getName());
+    private static final MatildaPolicyLearner INSTANCE = createInstance();
+    private final Path policyFile;
+    // Operations each module has been seen calling, keyed by module identity
+    private final ConcurrentHashMap<Module, AtomicLong> learnedOperations = new ConcurrentHashMap<>();
+    // Operations that have been called without an application module on the stack
+    private final AtomicLong unknownCallerOperations = new AtomicLong();
+
+    /**
+     * Creates a learner
+     * @param policyFile - path the learned policy is written to
+     */
+    public MatildaPolicyLearner(Path policyFile) {
+        this.policyFile = policyFile;
+    }
+
+    /**
+     * Returns the learner configured via the commandline
+     * @return MatildaPolicyLearner - learner or null if learning mode is not enabled
+     */
+    static MatildaPolicyLearner getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the learner configured via the commandline, the policy is written when the JVM shuts down
+     * @return MatildaPolicyLearner - learner or null if no learning file is configured
+     */
+    private static MatildaPolicyLearner createInstance() {
+        String policyFile = System.getProperty("matilda.learning.file");
+        if (policyFile == null) {
+            return null;
+        }
+        logger.log(Level.WARNING, "Matilda runs in learning mode, all operations are allowed");
+        MatildaPolicyLearner learner = new MatildaPolicyLearner(Path.of(policyFile));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                learner.write();
+                logger.log(Level.INFO, "Learned policy has been written to {0}", policyFile);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Learned policy can't be written to " + policyFile, e);
+            }
+        }, "matilda-policy-learner"));
+        return learner;
+    }
+
+    /**
+     * Records that a module called an operation
+     * @param module - module that called the operation, null if there is no application frame on the stack
+     * @param operation - operation code of the guarded method
+     */
+    public void record(Module module, int operation) {
+        long operationBit = 1L << operation;
+        AtomicLong operations = module == null ? unknownCallerOperations : learnedOperations.get(module);
+        if (operations == null) {
+            operations = learnedOperations.computeIfAbsent(module, key -> new AtomicLong());
+        }
+        if ((operations.get() & operationBit) == 0) {
+            operations.getAndUpdate(learned -> learned | operationBit);
+        }
+    }
+
+    /**
+     * Writes the learned policy, an existing file is replaced atomically
+     * @throws IOException - if the file can't be written
+     */
+    public void write() throws IOException {
+        StringBuilder policy = new StringBuilder("# Policy learned by Matilda until ").append(Instant.now()).append('\n');
+        for (int operation = 0; operation < MatildaRules.operationCount(); operation++) {
+            TreeSet<String> modules = new TreeSet<>();
+            for (Map.Entry<Module, AtomicLong> learned : learnedOperations.entrySet()) {
+                if ((learned.getValue().get() & 1L << operation) != 0) {
+                    Module module = learned.getKey();
+                    modules.add(module.isNamed() ? "module " + module.getName() : MatildaPolicy.ALL_UNNAMED);
+                }
+            }
+            if (!modules.isEmpty()) {
+                policy.append(MatildaRules.operationProperty(operation)).append('=')
+                        .append(String.join(",", modules)).append('\n');
+            }
+            if ((unknownCallerOperations.get() & 1L << operation) != 0) {
+                policy.append("# ").append(MatildaRules.operationName(operation))
+                        .append(" has been called without an application module on the stack, only module * allows it\n");
+                logger.log(Level.WARNING, "{0} has been called without an application module on the stack, "
+                        + "the learned policy does not allow it", MatildaRules.operationName(operation));
+            }
+        }
+        Path temporaryFile = policyFile.resolveSibling(policyFile.getFileName() + ".tmp");
+        // policy files are read as UTF-8, module names may contain any letter
+        Files.writeString(temporaryFile, policy, StandardCharsets.UTF_8);
+        Files.move(temporaryFile, policyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the policy file configured via -Dmatilda.policy.file and reloads the policy of an access control whenever
+ * the file changes. The new policy is compiled on the watcher thread and published with a single volatile write,
+ * checks on other threads never block. A file that can't be read or validated is reported and the previous policy
+ * stays in place.
+ */
+final class MatildaPolicyWatcher implements Runnable {
+    // Events that arrive within this time are coalesced into a single reload, editors write files in several steps
+    private static final long SETTLE_MILLIS = 100;
+    private static final Logger logger = Logger.getLogger(MatildaPolicyWatcher.class.getName());
+    private final Path policyFile;
+    private final MatildaAccessControl accessControl;
+    private final WatchService watchService;
+
+    private MatildaPolicyWatcher(Path policyFile, MatildaAccessControl accessControl) throws IOException {
+        this.policyFile = policyFile;
+        this.accessControl = accessControl;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        // Files are often replaced by a rename, the directory is watched rather than the file itself
+        policyFile.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Starts watching a policy file on a daemon thread
+     * @param policyFile - policy file the access control has been configured with
+     * @param accessControl - access control whose policy is replaced when the file changes
+     */
+    static void watch(Path policyFile, MatildaAccessControl accessControl) {
+        Path absoluteFile = policyFile.toAbsolutePath();
+        try {
+            Thread watcher = new Thread(new MatildaPolicyWatcher(absoluteFile, accessControl), "matilda-policy-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Policy file " + absoluteFile + " can't be watched, it is not reloaded", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                boolean changed = policyFileChanged(watchService.take());
+                WatchKey next;
+                while ((next = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= policyFileChanged(next);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            logger.log(Level.INFO, "Stopped watching policy file {0}", policyFile);
+        }
+    }
+
+    /**
+     * Consumes the events of a key and resets it
+     * @param key - signalled key of the policy directory
+     * @return boolean - true iff one of the events concerns the policy file
+     */
+    private boolean policyFileChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // Lost events are treated as a change, reloading an unchanged file does no harm
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || policyFile.getFileName().equals(event.context());
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Loads, compiles and publishes the policy, the previous policy stays in place if this fails
+     */
+    private void reload() {
+        long start = System.nanoTime();
+        try {
+            accessControl.reloadPolicy(policyFile);
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            logger.log(Level.INFO, "Reloaded policy file {0} in {1} microseconds", new Object[]{policyFile, micros});
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Policy file " + policyFile + " could not be reloaded, previous policy stays in place", e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Caps how often a module may call an operation it is allowed to call, configured with the same module names as the
+ * allow rules and the number of calls per second e.g. matilda.network.connect.rate=module org.apache.logging.log4j:5
+ * <p>
+ * Every pair of module and operation has its own token bucket that holds up to one second of calls. The buckets are
+ * implemented as generic cell rate algorithm: a bucket only stores the time at which it is full again and is refilled
+ * lazily from {@link System#nanoTime()} when a call takes a token, there are no timer threads and no locks. Calls of
+ * different modules or operations never contend, calls on the same bucket retry a single compare-and-set.
+ */
+final class MatildaRateLimits {
+    private static final Pattern RATE = Pattern.compile("(module \\S+):(\\d+)");
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    // Nanoseconds between two calls per operation keyed by module name, index is the operation code, 0 is unlimited
+    private final Map<String, long[]> intervals;
+    // Bitmask of the operations that are limited for at least one module
+    private final long limitedOperations;
+    // Buckets per module keyed by module identity, index is the operation code, null if the operation is unlimited
+    private final ConcurrentHashMap<Module, Bucket[]> buckets = new ConcurrentHashMap<>();
+    // Buckets shared by all calls without an application module on the stack, only the rule for all modules applies
+    private final Bucket[] unknownCallerBuckets;
+
+    private MatildaRateLimits(Map<String, long[]> intervals, long limitedOperations) {
+        this.intervals = intervals;
+        this.limitedOperations = limitedOperations;
+        this.unknownCallerBuckets = createBuckets(null);
+    }
+
+    /**
+     * Loads and validates the rate limits e.g. matilda.network.connect.rate=module gradle.worker:10
+     * @param properties - Properties in the format of System.properties
+     * @return MatildaRateLimits - rate limits or null if no operation is limited
+     * @throws IllegalArgumentException - if a rate limit is not valid
+     */
+    static MatildaRateLimits of(Properties properties) {
+        Map<String, long[]> intervals = new HashMap<>();
+        long limitedOperations = 0;
+        for (int operation = 0; operation < MatildaRules.operationCount(); operation++) {
+            String rates = properties.getProperty(rateProperty(operation), "");
+            if (rates.isEmpty()) {
+                continue;
+            }
+            for (String rate : rates.split(",")) {
+                Matcher matcher = RATE.matcher(rate);
+                long callsPerSecond = matcher.matches() ? parseRate(matcher.group(2)) : 0;
+                if (callsPerSecond <= 0 || callsPerSecond > NANOS_PER_SECOND) {
+                    throw new IllegalArgumentException("Not a valid rate limit: " + rate);
+                }
+                intervals.computeIfAbsent(matcher.group(1), key -> new long[MatildaRules.operationCount()])
+                        [operation] = NANOS_PER_SECOND / callsPerSecond;
+            }
+            limitedOperations |= 1L << operation;
+        }
+        return limitedOperations == 0 ? null : new MatildaRateLimits(intervals, limitedOperations);
+    }
+
+    /**
+     * Returns the property that configures the rate limits of an operation e.g. matilda.network.connect.rate
+     * @param operation - operation code of the guarded method
+     * @return String - name of the property
+     */
+    static String rateProperty(int operation) {
+        String allowProperty = MatildaRules.operationProperty(operation);
+        return allowProperty.substring(0, allowProperty.length() - "allow".length()) + "rate";
+    }
+
+    private static long parseRate(String rate) {
+        try {
+            return Long.parseLong(rate);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Checks if an operation is limited for at least one module
+     * @param operation - operation code of the guarded method
+     * @return boolean - true iff calls of the operation need to take a token
+     */
+    boolean limits(int operation) {
+        return (limitedOperations & (1L << operation)) != 0;
+    }
+
+    /**
+     * Takes a token from the bucket of a module and operation
+     * @param module - module that calls the operation, null if there is no application frame on the stack
+     * @param operation - operation code of the guarded method
+     * @return boolean - true iff the call is within the rate limit of the module
+     */
+    boolean tryAcquire(Module module, int operation) {
+        if (!limits(operation)) {
+            return true;
+        }
+        Bucket[] moduleBuckets = module == null ? unknownCallerBuckets : buckets.get(module);
+        if (moduleBuckets == null) {
+            moduleBuckets = buckets.computeIfAbsent(module, this::createBuckets);
+        }
+        Bucket bucket = moduleBuckets[operation];
+        return bucket == null || bucket.tryAcquire();
+    }
+
+    /**
+     * Creates the buckets of a module, a rule of the module itself takes precedence over the rule for all unnamed
+     * modules and the rule for all modules. Every module gets buckets of its own, also if the rule is shared.
+     */
+    private Bucket[] createBuckets(Module module) {
+        long[] moduleIntervals = module == null ? null
+                : intervals.get(module.isNamed() ? module.toString() : MatildaPolicy.ALL_UNNAMED);
+        long[] allModulesIntervals = intervals.get(MatildaPolicy.ALL_MODULES);
+        Bucket[] moduleBuckets = new Bucket[MatildaRules.operationCount()];
+        for (int operation = 0; operation < moduleBuckets.length; operation++) {
+            long interval = moduleIntervals != null && moduleIntervals[operation] != 0 ? moduleIntervals[operation]
+                    : allModulesIntervals != null ? allModulesIntervals[operation] : 0;
+            if (interval != 0) {
+                moduleBuckets[operation] = new Bucket(interval);
+            }
+        }
+        return moduleBuckets;
+    }
+
+    /**
+     * Token bucket of a module and operation, the value is the time at which the bucket is full again
+     */
+    private static final class Bucket extends AtomicLong {
+        // Nanoseconds a call takes from the bucket
+        private final long interval;
+        // A call is allowed as long as the bucket is not refilled further than this into the future
+        private final long tolerance;
+
+        private Bucket(long interval) {
+            super(System.nanoTime());
+            this.interval = interval;
+            this.tolerance = NANOS_PER_SECOND - interval;
+        }
+
+        private boolean tryAcquire() {
+            long now = System.nanoTime();
+            while (true) {
+                long full = get();
+                // nanoTime may overflow, times are only compared by their difference
+                long start = full - now > 0 ? full : now;
+                if (start - now > tolerance) {
+                    return false;
+                }
+                if (compareAndSet(full, start + interval)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
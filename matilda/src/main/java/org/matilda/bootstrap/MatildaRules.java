@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Operations, keys and parsing of the rules. Reading and validating rules has no side effects, the policy compiler
+ * uses it without initializing the access control of the JVM, its audit log, learner or policy watcher.
+ */
+final class MatildaRules {
+    // Property that configures the modules allowed to call an operation, indexed by operation code
+    private static final String[] OPERATION_PROPERTIES = {
+            "matilda.runtime.exit.allow",
+            "matilda.system.exec.allow",
+            "matilda.network.connect.allow",
+            "matilda.server.bind.allow",
+            "matilda.file.open.allow"
+    };
+    // Name of an operation as used in error messages, indexed by operation code
+    private static final String[] OPERATION_NAMES = {
+            "Runtime.exit",
+            "ProceesBuilder.start(...)",
+            "Socket.connect",
+            "ServerSocket.bind",
+            "File.open"
+    };
+    // Keys of the rules, they are set on the commandline or in the policy file
+    private static final Set<String> RULE_KEYS = Set.of("matilda.runtime.exit.allow", "matilda.system.exec.allow",
+            "matilda.network.connect.allow", "matilda.server.bind.allow", "matilda.file.open.allow",
+            "matilda.runtime.exit.rate", "matilda.system.exec.rate", "matilda.network.connect.rate",
+            "matilda.server.bind.rate", "matilda.file.open.rate", "matilda.network.connect.endpoints",
+            "matilda.server.bind.endpoints", "matilda.system.exec.commands", "matilda.file.open.paths",
+            "matilda.denial.stacktrace", "matilda.denial.log.interval");
+    // Keys that configure the JVM and the agent, they can't be changed by a policy file
+    private static final Set<String> COMMANDLINE_KEYS = Set.of("matilda.file.open.instrumentation",
+            "matilda.bootstrap.jar", "matilda.callsite.instrumentation", "matilda.policy.file", "matilda.audit.dir",
+            "matilda.audit.buffer.size", "matilda.audit.overflow", "matilda.audit.file.size",
+            "matilda.audit.file.count", "matilda.metrics", "matilda.learning.file");
+
+    private MatildaRules() {
+    }
+
+    /**
+     * Returns the name of an operation as used in error messages and the audit log
+     * @param operation - operation code of the guarded method
+     * @return String - name of the operation
+     */
+    static String operationName(int operation) {
+        return OPERATION_NAMES[operation];
+    }
+
+    /**
+     * Returns the property that configures the modules allowed to call an operation
+     * @param operation - operation code of the guarded method
+     * @return String - property name e.g. matilda.runtime.exit.allow
+     */
+    static String operationProperty(int operation) {
+        return OPERATION_PROPERTIES[operation];
+    }
+
+    /**
+     * Returns the number of guarded operations
+     * @return int - operation codes are 0 to operationCount - 1
+     */
+    static int operationCount() {
+        return OPERATION_NAMES.length;
+    }
+
+    /**
+     * Validates syntax correctness of property configuration
+     * @param properties - Properties in the format of System.properties
+     */
+    static void validatePropertyKeys(Properties properties) {
+        for (Object elem : properties.keySet()) {
+            if (elem instanceof String key && key.startsWith("matilda.")
+                    && !RULE_KEYS.contains(key) && !COMMANDLINE_KEYS.contains(key)) {
+                throw new IllegalArgumentException(key + " is not a valid key. Allowed keys are: "
+                        + Stream.concat(RULE_KEYS.stream(), COMMANDLINE_KEYS.stream()).sorted()
+                        .collect(Collectors.joining(", ")));
+            }
+        }
+    }
+
+    /**
+     * Loads a policy file, it uses the same keys as the System.properties e.g. matilda.runtime.exit.allow=module gradle.worker
+     * @param policyFile - path of the policy file
+     * @return Properties - validated content of the policy file
+     * @throws IOException - if the file can't be read
+     */
+    static Properties loadPolicyFile(Path policyFile) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(policyFile)) {
+            properties.load(reader);
+        }
+        validatePolicyFileKeys(properties, policyFile);
+        return properties;
+    }
+
+    /**
+     * Validates the keys of a policy file, properties that configure the agent can only be set on the commandline
+     * @param properties - content of the policy file
+     * @param policyFile - path of the policy file
+     */
+    static void validatePolicyFileKeys(Properties properties, Path policyFile) {
+        validatePropertyKeys(properties);
+        for (String key : properties.stringPropertyNames()) {
+            if (COMMANDLINE_KEYS.contains(key)) {
+                throw new IllegalArgumentException(key + " can only be set on the commandline, not in the policy file "
+                        + policyFile);
+            }
+        }
+    }
+
+    /**
+     * Validates all rules of a policy file, they are compiled like the JVM compiles them when the policy is loaded
+     * @param properties - validated content of the policy file
+     * @throws IllegalArgumentException - if a rule is not valid
+     */
+    static void validateConfiguration(Properties properties) {
+        MatildaConfiguration.of(new MatildaArrayPolicy(policyRules(properties)), properties);
+    }
+
+    /**
+     * Loads and validates the operation specific properties
+     * @param properties - Properties in the format of System.properties => matilda.runtime.exit.allow=Module that should be allowed
+     * @return Map - bitmask of the allowed operations keyed by module name
+     */
+    static Map<String, Long> policyRules(Properties properties) {
+        Map<String, Long> rules = new HashMap<>();
+        for (int operation = 0; operation < OPERATION_PROPERTIES.length; operation++) {
+            String allow = properties.getProperty(OPERATION_PROPERTIES[operation], "");
+            Set<String> modules = validateModuleConfig(allow.isEmpty() ? Set.of() : Set.of(allow.split(",")));
+            for (String module : modules) {
+                rules.merge(module, 1L << operation, (allowed, bit) -> allowed | bit);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Checks for a valid configuration
+     * @param modules - set of Strings the potentially represent moduls
+     * @return - Set of Strings that are valid configurations
+     */
+    static Set<String> validateModuleConfig(Set<String> modules) {
+        Pattern pattern = Pattern.compile("module \\S+");
+        for (String moduleName : modules) {
+            Matcher matcher = pattern.matcher(moduleName);
+            if (!matcher.matches()){
+                throw new IllegalArgumentException("Not a valid module name: " + moduleName);
+            }
+        }
+        return modules;
+    }
+}
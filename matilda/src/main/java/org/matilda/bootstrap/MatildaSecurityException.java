@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.bootstrap;
+
+import java.io.Serial;
+import java.net.SocketAddress;
+import java.util.List;
+
+/**
+ * Thrown if a module is not allowed to call a guarded operation. The message is only built when it is requested and
+ * the stack trace is only filled if it is configured via -Dmatilda.denial.stacktrace, a flood of denials therefore
+ * costs little more than the checks that allow the operation.
+ *
+ * @see MatildaDenials
+ */
+public final class MatildaSecurityException extends RuntimeException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final String operation;
+    private final String moduleName;
+    private final SocketAddress endpoint;
+    private final List<String> command;
+    private final String file;
+    private final boolean rateLimited;
+
+    MatildaSecurityException(String operation, String moduleName, SocketAddress endpoint, List<String> command,
+                             String file, boolean rateLimited, boolean writableStackTrace) {
+        super(null, null, false, writableStackTrace);
+        this.operation = operation;
+        this.moduleName = moduleName;
+        this.endpoint = endpoint;
+        this.command = command;
+        this.file = file;
+        this.rateLimited = rateLimited;
+    }
+
+    /**
+     * @return String - name of the denied operation e.g. Socket.connect
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return String - name of the module that called the operation
+     */
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    /**
+     * @return SocketAddress - endpoint the module is not allowed to use, null if the operation itself is denied
+     */
+    public SocketAddress getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return List - command the module is not allowed to start, null if the operation itself is denied
+     */
+    public List<String> getCommand() {
+        return command;
+    }
+
+    /**
+     * @return String - path of the file the module is not allowed to open, null if the operation itself is denied
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @return boolean - true if the module is allowed to call the operation but exceeded its rate limit
+     */
+    public boolean isRateLimited() {
+        return rateLimited;
+    }
+
+    @Override
+    public String getMessage() {
+        return operation + (endpoint != null ? " to " + endpoint : "") + (command != null ? " of " + command : "")
+                + (file != null ? " of " + file : "")
+                + (rateLimited ? " rate limit exceeded for Module: " : " not allowed for Module: ") + moduleName;
+    }
+}
@@ -16,14 +16,34 @@
  */
 package org.matilda.bootstrap;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Object that mock the invocation of methods or initialization of Objects for testing purposes
+ * <p>
+ * {@link #invoke(Object, Method, Object...)} and {@link #newInstance(Constructor, Object...)} call through a
+ * MethodHandle that is resolved once per Method or Constructor, the frames of MethodHandles are hidden from stack walks
+ * and a guarded operation still sees matilda.core as its caller. The handles are cached per declaring class, they
+ * don't keep the class loader of a class alive.
  */
 public final class ModuleProxy {
+    // Handles are resolved with the access of matilda.core, like Method.invoke with ModuleProxy as caller
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    // Invokers of the methods and constructors of a class, every invoker has the type (Object, Object[])Object or
+    // (Object[])Object for constructors
+    private static final ClassValue<ConcurrentHashMap<Executable, MethodHandle>> INVOKERS = new ClassValue<>() {
+        @Override
+        protected ConcurrentHashMap<Executable, MethodHandle> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
 
     /**
      * Mocks invocation of a method and return object accordingly
@@ -52,4 +72,77 @@ public final class ModuleProxy {
     public static <T> T call(Constructor<T> constructor, Object... args) throws InvocationTargetException, IllegalAccessException, InstantiationException {
         return constructor.newInstance(args);
     }
+
+    /**
+     * Invokes a method like {@link #call(Object, Method, Object...)} through a cached MethodHandle. Arguments that don't
+     * match the parameters and a missing receiver fail with an InvocationTargetException as well
+     * @param inst - Object of method, ignored for static methods
+     * @param method - that should be invoked
+     * @param args - method argument
+     * @return - results of invoking the method with the given object, null for void methods
+     * @throws InvocationTargetException - if the underlying method throws an exception.
+     * @throws IllegalAccessException - if Method object is enforcing Java language access control and the underlying method is inaccessible.
+     */
+    public static Object invoke(Object inst, Method method, Object... args) throws InvocationTargetException, IllegalAccessException {
+        MethodHandle invoker = INVOKERS.get(method.getDeclaringClass()).get(method);
+        if (invoker == null) {
+            invoker = methodInvoker(method);
+        }
+        try {
+            return (Object) invoker.invokeExact(inst, args);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Initializes an Object like {@link #call(Constructor, Object...)} through a cached MethodHandle. Arguments that
+     * don't match the parameters fail with an InvocationTargetException as well
+     * @param constructor - that should be called
+     * @param args - parameter of constructor
+     * @return - Initialized Object
+     * @param <T> - Generic Typ in order to adapt to initialized Object
+     * @throws InvocationTargetException - if the underlying constructor throws an exception.
+     * @throws IllegalAccessException - if this Constructor object is enforcing Java language access control and the underlying constructor is inaccessible.
+     * @throws InstantiationException - if the class that declares the underlying constructor represents an abstract class.
+     */
+    public static <T> T newInstance(Constructor<T> constructor, Object... args) throws InvocationTargetException, IllegalAccessException, InstantiationException {
+        MethodHandle invoker = INVOKERS.get(constructor.getDeclaringClass()).get(constructor);
+        if (invoker == null) {
+            invoker = constructorInvoker(constructor);
+        }
+        try {
+            return constructor.getDeclaringClass().cast((Object) invoker.invokeExact(args));
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Resolves the invoker of a method, the receiver of static methods is dropped
+     */
+    private static MethodHandle methodInvoker(Method method) throws IllegalAccessException {
+        MethodHandle target = LOOKUP.unreflect(method).asFixedArity();
+        if (Modifier.isStatic(method.getModifiers())) {
+            target = MethodHandles.dropArguments(target, 0, Object.class);
+        }
+        MethodHandle invoker = target.asType(target.type().generic())
+                .asSpreader(Object[].class, method.getParameterCount());
+        MethodHandle cached = INVOKERS.get(method.getDeclaringClass()).putIfAbsent(method, invoker);
+        return cached != null ? cached : invoker;
+    }
+
+    /**
+     * Resolves the invoker of a constructor
+     */
+    private static MethodHandle constructorInvoker(Constructor<?> constructor) throws IllegalAccessException, InstantiationException {
+        if (Modifier.isAbstract(constructor.getDeclaringClass().getModifiers())) {
+            throw new InstantiationException(constructor.getDeclaringClass().getName());
+        }
+        MethodHandle target = LOOKUP.unreflectConstructor(constructor).asFixedArity();
+        MethodHandle invoker = target.asType(target.type().generic())
+                .asSpreader(Object[].class, constructor.getParameterCount());
+        MethodHandle cached = INVOKERS.get(constructor.getDeclaringClass()).putIfAbsent(constructor, invoker);
+        return cached != null ? cached : invoker;
+    }
 }
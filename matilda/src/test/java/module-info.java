@@ -16,6 +16,10 @@
  */
 module matilda.test {
     requires matilda.core;
+    requires java.instrument;
+    requires jdk.jfr;
+    requires java.management;
+    requires java.logging;
     requires org.junit.jupiter.api;
     opens org.matilda.test to org.junit.platform.commons;
     opens org.matilda.test.bootstrap to org.junit.platform.commons;
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+
+/**
+ * Tests the checks at the call sites of application classes, runs in a JVM of its own with
+ * -Dmatilda.callsite.instrumentation=true. matilda.test may only bind to the loopback address, the calls of this
+ * class are rewritten while the reflective calls are checked by the entry point of ServerSocket.bind.
+ */
+public class AgentMatildaCallSiteTest {
+
+    /**
+     * Tests that a rewritten call is checked with the module of the calling class
+     */
+    @Test
+    public void testCallSiteChecked() {
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            System.exit(-1);
+            Assertions.fail("should not have been able to exit the process");
+        });
+        Assertions.assertEquals("Runtime.exit not allowed for Module: matilda.test", exception.getMessage());
+    }
+
+    /**
+     * Tests that a bind checked at the call site doesn't mark a bind of a subclass as verified, the override binds
+     * another server socket to the wildcard address before the entry point of the checked bind is reached
+     */
+    @Test
+    public void testSubclassNotVerified() throws IOException {
+        try (ServerSocket wildcard = new ServerSocket(); ServerSocket serverSocket = new RebindingServerSocket(wildcard)) {
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class,
+                    () -> serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)));
+            Assertions.assertTrue(exception.getMessage().startsWith("ServerSocket.bind to ")
+                    && exception.getMessage().endsWith(" not allowed for Module: matilda.test"), exception.getMessage());
+            Assertions.assertFalse(wildcard.isBound(), "should not have been able to bind to the wildcard address");
+        }
+    }
+
+    /**
+     * Tests that the verification of a call site ends with the call, a later reflective bind is checked again
+     */
+    @Test
+    public void testVerificationCleared() throws Exception {
+        try (ServerSocket loopback = new ServerSocket(); ServerSocket wildcard = new ServerSocket()) {
+            loopback.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Assertions.assertTrue(loopback.isBound());
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class,
+                    () -> reflectiveBind(wildcard, new InetSocketAddress(0)));
+            Assertions.assertTrue(exception.getMessage().startsWith("ServerSocket.bind to ")
+                    && exception.getMessage().endsWith(" not allowed for Module: matilda.test"), exception.getMessage());
+            Assertions.assertFalse(wildcard.isBound());
+        }
+    }
+
+    /**
+     * Binds a server socket reflectively, reflective calls are not rewritten
+     */
+    private static void reflectiveBind(ServerSocket serverSocket, SocketAddress endpoint) throws Throwable {
+        Method bind = ServerSocket.class.getMethod("bind", SocketAddress.class, int.class);
+        try {
+            bind.invoke(serverSocket, endpoint, 0);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Server socket that binds another server socket to the wildcard address whenever it is bound
+     */
+    private static final class RebindingServerSocket extends ServerSocket {
+        private final ServerSocket wildcard;
+
+        RebindingServerSocket(ServerSocket wildcard) throws IOException {
+            this.wildcard = wildcard;
+        }
+
+        @Override
+        public void bind(SocketAddress endpoint, int backlog) throws IOException {
+            try {
+                reflectiveBind(wildcard, null);
+            } catch (IOException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            super.bind(endpoint, backlog);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests the checks of file opens, runs in a JVM of its own with -Dmatilda.file.open.instrumentation=true. matilda.test
+ * may only open files in the directory of the system property org.matilda.test.dir, all other modules may open any file.
+ */
+public class AgentMatildaFileOpenTest {
+    private static final Path ALLOWED = Path.of(System.getProperty("org.matilda.test.dir")).toAbsolutePath();
+    private static final Path DENIED = ALLOWED.resolveSibling("denied.txt");
+
+    @AfterEach
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(ALLOWED.resolve("allowed.txt"));
+        Files.deleteIfExists(DENIED);
+    }
+
+    /**
+     * Tests that the files written with Files.write are checked against the paths of the module
+     */
+    @Test
+    public void testFilesWrite() throws IOException {
+        Files.createDirectories(ALLOWED);
+        Path allowed = ALLOWED.resolve("allowed.txt");
+        Files.write(allowed, "Test file".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("Test file", Files.readString(allowed));
+
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            Files.write(DENIED, "Test file".getBytes(StandardCharsets.UTF_8));
+            Assertions.fail("should not have been able to write the file");
+        });
+        Assertions.assertEquals("File.open of " + DENIED + " not allowed for Module: matilda.test", exception.getMessage());
+        Assertions.assertFalse(Files.exists(DENIED));
+    }
+
+    /**
+     * Tests that the streams of Files and copies of files are checked as well
+     */
+    @Test
+    public void testFilesStreamsAndCopies() throws IOException {
+        Files.createDirectories(ALLOWED);
+        Path allowed = ALLOWED.resolve("allowed.txt");
+        Files.writeString(allowed, "Test file");
+
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            try (OutputStream out = Files.newOutputStream(DENIED)) {
+                out.write(1);
+            }
+            Assertions.fail("should not have been able to open the file");
+        });
+        Assertions.assertEquals("File.open of " + DENIED + " not allowed for Module: matilda.test", exception.getMessage());
+
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            Files.copy(allowed, DENIED);
+            Assertions.fail("should not have been able to copy the file");
+        });
+        Assertions.assertEquals("File.open of " + DENIED + " not allowed for Module: matilda.test", exception.getMessage());
+        Assertions.assertFalse(Files.exists(DENIED));
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.matilda.bootstrap.MatildaSecurityException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Tests a JVM that is started with -Dmatilda.policy.file, the access control is initialized in premain with the rules
+ * of the file. matilda.test may only bind to the loopback address, the process start granted to matilda.test on the
+ * commandline doesn't apply. The file is watched, tests that change it restore it before they return.
+ */
+public class AgentMatildaPolicyFileTest {
+    // Time a reload of the watched file may take, the watcher coalesces the events of 100 milliseconds
+    private static final long RELOAD_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * Tests that the permissions and endpoints of the policy file apply
+     */
+    @Test
+    public void testPolicyFileApplied() throws IOException {
+        try (ServerSocket loopback = new ServerSocket(); ServerSocket wildcard = new ServerSocket()) {
+            loopback.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Assertions.assertTrue(loopback.isBound());
+            MatildaSecurityException exception = Assertions.assertThrows(MatildaSecurityException.class,
+                    () -> wildcard.bind(new InetSocketAddress(0)));
+            Assertions.assertEquals("matilda.test", exception.getModuleName());
+            Assertions.assertNotNull(exception.getEndpoint());
+            Assertions.assertFalse(wildcard.isBound());
+        }
+    }
+
+    /**
+     * Tests that the rules of the commandline don't apply, the command doesn't exist and would only fail to start
+     * after the check
+     */
+    @Test
+    public void testCommandlineRulesIgnored() {
+        MatildaSecurityException exception = Assertions.assertThrows(MatildaSecurityException.class,
+                () -> new ProcessBuilder("matilda-policy-file-test").start());
+        Assertions.assertEquals("ProceesBuilder.start(...)", exception.getOperation());
+        Assertions.assertEquals("matilda.test", exception.getModuleName());
+        Assertions.assertNull(exception.getCommand());
+    }
+
+    /**
+     * Tests that changes of the watched file are applied: the operation is relinked when it is allowed for every module
+     * and checked again once it is restricted, a file that can't be loaded keeps the previous configuration in place
+     * and the denials counted by a replaced configuration are summarized when it is replaced
+     */
+    @Test
+    public void testPolicyFileReloaded() throws Exception {
+        Path policyFile = Path.of(System.getProperty("matilda.policy.file"));
+        String original = Files.readString(policyFile);
+        RecordingHandler watcherLog = RecordingHandler.attach("org.matilda.bootstrap.MatildaPolicyWatcher");
+        RecordingHandler denialLog = RecordingHandler.attach("org.matilda.bootstrap.MatildaDenials");
+        try {
+            // the first denial may be summarized right away, the second one is left to the replaced configuration
+            Assertions.assertFalse(wildcardBindAllowed());
+            Assertions.assertFalse(wildcardBindAllowed());
+            denialLog.clear();
+            replace(policyFile, original.replaceAll("(?m)^matilda\\.server\\.bind\\..*$", "")
+                    + "matilda.server.bind.allow=module *\n");
+            awaitBindVerdict(true);
+            denialLog.await(record -> record.getParameters() != null
+                    && record.getParameters()[1] instanceof Map<?, ?> summary
+                    && summary.containsKey("matilda.test::ServerSocket.bind"));
+
+            replace(policyFile, original + "matilda.system.foo.allow=module matilda.test\n");
+            watcherLog.await(record -> record.getLevel() == Level.WARNING
+                    && record.getMessage().endsWith("could not be reloaded, previous policy stays in place"));
+            Assertions.assertTrue(wildcardBindAllowed(), "the previous policy stays in place");
+        } finally {
+            replace(policyFile, original);
+            awaitBindVerdict(false);
+            watcherLog.detach();
+            denialLog.detach();
+        }
+    }
+
+    private static boolean wildcardBindAllowed() throws IOException {
+        try (ServerSocket wildcard = new ServerSocket()) {
+            wildcard.bind(new InetSocketAddress(0));
+            return true;
+        } catch (MatildaSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Waits until the watcher applied a change of the file
+     */
+    private static void awaitBindVerdict(boolean allowed) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RELOAD_TIMEOUT_MILLIS);
+        while (wildcardBindAllowed() != allowed) {
+            if (System.nanoTime() - deadline > 0) {
+                Assertions.fail("policy file has not been reloaded, wildcard bind should be allowed: " + allowed);
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Replaces the policy file with an atomic move as recommended for watched files
+     */
+    private static void replace(Path policyFile, String content) throws IOException {
+        Path temporaryFile = policyFile.resolveSibling(policyFile.getFileName() + ".tmp");
+        Files.writeString(temporaryFile, content);
+        Files.move(temporaryFile, policyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Collects the log records of a logger of Matilda
+     */
+    private static final class RecordingHandler extends Handler {
+        private final BlockingQueue<LogRecord> records = new LinkedBlockingQueue<>();
+        private final Logger logger;
+
+        private RecordingHandler(Logger logger) {
+            this.logger = logger;
+        }
+
+        static RecordingHandler attach(String loggerName) {
+            Logger logger = Logger.getLogger(loggerName);
+            RecordingHandler handler = new RecordingHandler(logger);
+            logger.addHandler(handler);
+            return handler;
+        }
+
+        void clear() {
+            records.clear();
+        }
+
+        void detach() {
+            logger.removeHandler(this);
+        }
+
+        void await(Predicate<LogRecord> expected) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RELOAD_TIMEOUT_MILLIS);
+            LogRecord record;
+            do {
+                record = records.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (record == null) {
+                    Assertions.fail("expected record has not been logged by " + logger.getName());
+                }
+            } while (!expected.test(record));
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
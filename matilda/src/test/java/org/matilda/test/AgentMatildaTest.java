@@ -18,6 +18,11 @@ package org.matilda.test;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.matilda.MatildaClassFileTransformer;
+import org.matilda.MatildaTransformerRegistry;
 import org.matilda.bootstrap.ModuleProxy;
 
 import java.io.BufferedReader;
@@ -27,7 +32,21 @@ import java.io.InputStreamReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -99,6 +118,80 @@ public class AgentMatildaTest {
         }
     }
 
+    // Negative case, the cached MethodHandle of ModuleProxy.invoke is called on behalf of matilda.core as well
+    @Test
+    public void testSystemExecWithCachedInvoker() throws NoSuchMethodException, InvocationTargetException, IllegalAccessException, IOException, InterruptedException {
+        Method exec = Runtime.class.getMethod("exec", String[].class);
+        for (String value : new String[]{"foo", "bar"}) {
+            Process echo = (Process) ModuleProxy.invoke(Runtime.getRuntime(), exec, (Object) new String[]{"echo", value});
+            echo.waitFor(3, TimeUnit.SECONDS);
+            Assertions.assertEquals(0, echo.exitValue());
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(echo.getInputStream()))) {
+                Assertions.assertEquals(value, reader.readLine());
+            }
+        }
+        InvocationTargetException wrapped = Assertions.assertThrows(InvocationTargetException.class, () -> {
+            ModuleProxy.invoke(Runtime.getRuntime(), exec, (Object) new String[0]);
+        });
+        Assertions.assertInstanceOf(IndexOutOfBoundsException.class, wrapped.getCause());
+    }
+
+    /**
+     * Records the checks of a blocked connection and a class transformation with the flight recorder
+     */
+    @Test
+    public void testFlightRecorderEvents() throws IOException {
+        Path recordingFile = Files.createTempFile("matilda", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("matilda.PermissionCheck");
+            recording.enable("matilda.ClassTransform");
+            recording.start();
+            Assertions.assertThrows(RuntimeException.class, () -> {
+                Socket socket = new Socket("localhost", 9999);
+                Assertions.fail("should not have been able to open a connection");
+            });
+            byte[] classBytes;
+            try (InputStream stream = Object.class.getModule().getResourceAsStream("java/net/Socket.class")) {
+                classBytes = stream.readAllBytes();
+            }
+            new MatildaClassFileTransformer(MatildaTransformerRegistry.withDefaults())
+                    .transform(null, "java/net/Socket", null, null, classBytes);
+            recording.stop();
+            recording.dump(recordingFile);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+            Assertions.assertTrue(events.stream().anyMatch(event ->
+                    event.getEventType().getName().equals("matilda.PermissionCheck")
+                            && "Socket.connect".equals(event.getString("operation"))
+                            && "matilda.test".equals(event.getString("callerModule"))
+                            && !event.getBoolean("allowed")
+                            && event.getInt("stackWalkDepth") > 0), "Permission check has not been recorded");
+            Assertions.assertTrue(events.stream().anyMatch(event ->
+                    event.getEventType().getName().equals("matilda.ClassTransform")
+                            && "java/net/Socket".equals(event.getString("className"))
+                            && event.getInt("bytesOut") > 0), "Class transformation has not been recorded");
+        } finally {
+            Files.deleteIfExists(recordingFile);
+        }
+    }
+
+    /**
+     * Tests that the MBean of the agent counts the transformations at startup and the checks of the bootstrap jar
+     */
+    @Test
+    public void testMBean() throws JMException {
+        Assertions.assertThrows(RuntimeException.class, () -> {
+            Socket socket = new Socket("localhost", 9999);
+            Assertions.fail("should not have been able to open a connection");
+        });
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.matilda:type=Matilda");
+        Assertions.assertTrue((Long) server.getAttribute(name, "TransformedClasses") >= 4);
+        TabularData deniedChecks = (TabularData) server.getAttribute(name, "DeniedChecks");
+        Assertions.assertNotNull(deniedChecks.get(new Object[]{"matilda.test::Socket.connect"}));
+        Assertions.assertNotNull(server.getAttribute(name, "CheckLatencies"));
+    }
+
     @Test
     public void openSocketTest() {
         RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
@@ -120,6 +213,79 @@ public class AgentMatildaTest {
         });
         Assertions.assertEquals("Socket.connect not allowed for Module: matilda.test", uOE.getMessage());
 
+        // Tests that a connect with a timeout is checked as well
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", 9999), 1000);
+            }
+            Assertions.fail("should not have been able to open a connection");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: matilda.test", exception.getMessage());
+    }
+
+    /**
+     * Tests that connects, binds and datagram sends of NIO channels are checked like the ones of Socket and ServerSocket
+     */
+    @Test
+    public void openChannelTest() {
+        InetSocketAddress endpoint = new InetSocketAddress("localhost", 9999);
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            try (SocketChannel channel = SocketChannel.open()) {
+                channel.connect(endpoint);
+            }
+            Assertions.fail("should not have been able to open a connection");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: matilda.test", exception.getMessage());
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            try (AsynchronousSocketChannel channel = AsynchronousSocketChannel.open()) {
+                channel.connect(endpoint);
+            }
+            Assertions.fail("should not have been able to open a connection");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: matilda.test", exception.getMessage());
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            try (DatagramChannel channel = DatagramChannel.open()) {
+                channel.connect(endpoint);
+            }
+            Assertions.fail("should not have been able to connect a datagram channel");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: matilda.test", exception.getMessage());
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            try (DatagramChannel channel = DatagramChannel.open()) {
+                channel.send(ByteBuffer.wrap(new byte[]{1}), endpoint);
+            }
+            Assertions.fail("should not have been able to send a datagram");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: matilda.test", exception.getMessage());
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            // an unbound socket, the socket is bound by its first send
+            try (DatagramSocket socket = new DatagramSocket(null)) {
+                socket.send(new DatagramPacket(new byte[]{1}, 1, endpoint));
+            }
+            Assertions.fail("should not have been able to send a datagram");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: matilda.test", exception.getMessage());
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+                channel.bind(null);
+            }
+            Assertions.fail("should not have been able to bind a Socket");
+        });
+        Assertions.assertEquals("ServerSocket.bind not allowed for Module: matilda.test", exception.getMessage());
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            try (AsynchronousServerSocketChannel channel = AsynchronousServerSocketChannel.open()) {
+                channel.bind(null);
+            }
+            Assertions.fail("should not have been able to bind a Socket");
+        });
+        Assertions.assertEquals("ServerSocket.bind not allowed for Module: matilda.test", exception.getMessage());
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            try (DatagramChannel channel = DatagramChannel.open()) {
+                channel.bind(null);
+            }
+            Assertions.fail("should not have been able to bind a datagram channel");
+        });
+        Assertions.assertEquals("ServerSocket.bind not allowed for Module: matilda.test", exception.getMessage());
     }
 
     /**
@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.matilda.MatildaClassFileTransformer;
+import org.matilda.MatildaCodeTransformer;
+import org.matilda.MatildaTransformerRegistry;
+import org.matilda.NetworkSocketTransformer;
+import org.matilda.ServerSocketTransformer;
+import org.matilda.SystemExecTransformer;
+import org.matilda.SystemExitTransformer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.file.FileSystems;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.ClassTransform;
+import java.lang.classfile.CodeElement;
+import java.lang.classfile.CodeModel;
+import java.lang.classfile.Instruction;
+import java.lang.classfile.MethodModel;
+import java.lang.classfile.instruction.InvokeDynamicInstruction;
+import java.lang.classfile.instruction.InvokeInstruction;
+import java.lang.classfile.instruction.LoadInstruction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Tests the transformations of the agent on the original class files of the JDK
+ */
+@SuppressWarnings("preview")
+class MatildaClassFileTransformerTest {
+    // Methods as they were matched by the string based predicates before the ClassFile context was shared
+    private static final List<PreviousTarget> PREVIOUS_TARGETS = List.of(
+            new PreviousTarget(new SystemExitTransformer(), "java/lang/Runtime", "exit", "(I)V"),
+            new PreviousTarget(new SystemExecTransformer(), "java/lang/ProcessImpl", "start",
+                    "([Ljava/lang/String;Ljava/util/Map;Ljava/lang/String;[Ljava/lang/ProcessBuilder$Redirect;Z)Ljava/lang/Process;"),
+            new PreviousTarget(new NetworkSocketTransformer(), "java/net/Socket", "connect", "(Ljava/net/SocketAddress;I)V"),
+            new PreviousTarget(new ServerSocketTransformer(), "java/net/ServerSocket", "bind", "(Ljava/net/SocketAddress;I)V"));
+    // Instrumented classes mapped to the entry point of the check that is injected
+    private static final Map<String, String> CHECKS = Map.of(
+            "java/lang/Runtime", "checkRuntimeExit",
+            "java/lang/ProcessImpl", "checkProcessBuilderStart",
+            "java/net/Socket", "checkSocketConnect",
+            "java/net/ServerSocket", "checkServerSocketBind");
+
+    /**
+     * Transforms the instrumented classes with a single shared transformer from many threads concurrently,
+     * every transformed class needs to contain exactly one check at the entry point of the instrumented method
+     */
+    @Test
+    void testConcurrentTransformations() throws Exception {
+        MatildaClassFileTransformer transformer = new MatildaClassFileTransformer(MatildaTransformerRegistry.withDefaults());
+        Map<String, byte[]> originals = new HashMap<>();
+        for (String className : CHECKS.keySet()) {
+            originals.put(className, readClass(className));
+        }
+        List<String> classNames = new ArrayList<>(CHECKS.keySet());
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> transformations = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                String className = classNames.get(i % classNames.size());
+                transformations.add(executor.submit(() -> {
+                    byte[] transformed = transformer.transform(null, className, null, null, originals.get(className));
+                    Assertions.assertNotNull(transformed, className + " has not been transformed");
+                    assertSingleCheckAtEntry(transformed, CHECKS.get(className));
+                    return null;
+                }));
+            }
+            for (Future<?> transformation : transformations) {
+                transformation.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that the checks of file opens are injected at the entry point of the constructors and methods, before the
+     * constructors of FileInputStream and FileOutputStream call their super constructor. The provider of the default
+     * file system checks the files it opens, copies and moves, copies and moves check the source and the target.
+     */
+    @Test
+    void testFileOpenTransformations() throws IOException {
+        MatildaClassFileTransformer transformer = new MatildaClassFileTransformer(MatildaTransformerRegistry.withDefaults().withFileOpens());
+        for (String className : List.of("java/io/FileInputStream", "java/io/FileOutputStream")) {
+            byte[] transformed = transformer.transform(null, className, null, null, readClass(className));
+            Assertions.assertNotNull(transformed, className + " has not been transformed");
+            assertSingleCheckAtEntry(transformed, "checkFileOpen");
+        }
+        String provider = defaultProvider();
+        byte[] transformed = transformer.transform(null, provider, null, null, readClass(provider));
+        Assertions.assertNotNull(transformed, provider + " has not been transformed");
+        Assertions.assertEquals(Map.of("newByteChannel", 1, "newFileChannel", 1, "newAsynchronousFileChannel", 1,
+                "copy", 2, "move", 2), checksAtEntry(transformed, "checkFileOpen"));
+        Assertions.assertNull(transformer.transform(null, "java/nio/file/Files", null, null, readClass("java/nio/file/Files")),
+                "Files opens its files with the provider");
+        Assertions.assertNull(new MatildaClassFileTransformer(MatildaTransformerRegistry.withDefaults())
+                .transform(null, "java/io/FileInputStream", null, null, readClass("java/io/FileInputStream")));
+    }
+
+    /**
+     * Tests that classes without registered transformers are not transformed
+     */
+    @Test
+    void testUnregisteredClassNotTransformed() throws IOException {
+        MatildaClassFileTransformer transformer = new MatildaClassFileTransformer(MatildaTransformerRegistry.withDefaults());
+        Assertions.assertNull(transformer.transform(null, "java/lang/String", null, null, readClass("java/lang/String")));
+        Assertions.assertNull(transformer.transform(null, null, null, null, readClass("java/lang/String")));
+    }
+
+    /**
+     * Tests that the output is identical to the output of the transformation before the ClassFile context was shared
+     * and classes were skipped early: every class was parsed with a new context and its methods were matched by
+     * comparing their names and descriptors as strings
+     */
+    @Test
+    void testOutputIdenticalToPreviousTransformation() throws IOException {
+        MatildaClassFileTransformer transformer = new MatildaClassFileTransformer(MatildaTransformerRegistry.withDefaults());
+        for (PreviousTarget target : PREVIOUS_TARGETS) {
+            byte[] original = readClass(target.className());
+            Predicate<MethodModel> previousPredicate = method ->
+                    method.parent().get().thisClass().asInternalName().equals(target.className())
+                            && target.methodName().equals(method.methodName().stringValue())
+                            && target.descriptor().equals(method.methodType().stringValue());
+            ClassFile classFile = ClassFile.of(ClassFile.DebugElementsOption.DROP_DEBUG);
+            byte[] expected = classFile.transform(classFile.parse(original), ClassTransform.transformingMethodBodies(
+                    previousPredicate, target.transformer().getTransform()));
+            Assertions.assertArrayEquals(expected, transformer.transform(null, target.className(), null, null, original),
+                    target.className() + " differs from the previous transformation");
+        }
+    }
+
+    /**
+     * Tests that a class is not transformed if it does not contain the instrumented method
+     */
+    @Test
+    void testClassWithoutMethodNotTransformed() throws IOException {
+        MatildaClassFileTransformer transformer = new MatildaClassFileTransformer(MatildaTransformerRegistry.withDefaults());
+        Assertions.assertNull(transformer.transform(null, "java/net/Socket", null, null, readClass("java/lang/String")));
+    }
+
+    /**
+     * Tests that the calls of guarded methods in application classes are replaced with the checks of
+     * MatildaCallerChecks, classes of the boot loader and classes without guarded calls are not rewritten
+     */
+    @Test
+    void testCallSitesRewritten() throws IOException {
+        MatildaClassFileTransformer transformer = new MatildaClassFileTransformer(MatildaTransformerRegistry.withDefaults(), true);
+        ClassLoader loader = MatildaClassFileTransformerTest.class.getClassLoader();
+        String className = "org/matilda/test/MatildaClassFileTransformerTest$SocketClient";
+        byte[] original = readTestClass(SocketClient.class);
+        byte[] transformed = transformer.transform(loader, className, null, null, original);
+        Assertions.assertNotNull(transformed, "guarded call has not been rewritten");
+        int checks = 0;
+        for (MethodModel method : ClassFile.of().parse(transformed).methods()) {
+            for (CodeElement element : method.code().orElseThrow()) {
+                if (element instanceof InvokeInstruction invoke) {
+                    Assertions.assertFalse(invoke.owner().asInternalName().equals("java/net/Socket")
+                            && invoke.name().equalsString("connect"), "Socket.connect is still called directly");
+                }
+                if (element instanceof InvokeDynamicInstruction check && check.name().equalsString("socketConnect")) {
+                    Assertions.assertEquals("Lorg/matilda/bootstrap/MatildaCallerChecks;",
+                            check.bootstrapMethod().owner().descriptorString());
+                    checks++;
+                }
+            }
+        }
+        Assertions.assertEquals(1, checks, "Socket.connect needs to be replaced exactly once");
+
+        Assertions.assertNull(transformer.transform(null, className, null, null, original),
+                "classes of the boot loader must not be rewritten");
+        Assertions.assertNull(transformer.transform(loader, "org/matilda/test/MatildaClassFileTransformerTest$PreviousTarget",
+                null, null, readTestClass(PreviousTarget.class)), "class without guarded calls must not be rewritten");
+        Assertions.assertNull(new MatildaClassFileTransformer(MatildaTransformerRegistry.withDefaults(), false)
+                .transform(loader, className, null, null, original), "call sites are only rewritten if enabled");
+    }
+
+    /**
+     * Reads the class file of a class of this module
+     */
+    private static byte[] readTestClass(Class<?> testClass) throws IOException {
+        String name = testClass.getName();
+        try (InputStream in = testClass.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            Assertions.assertNotNull(in, "class file of " + name + " not found");
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Looks up the instrumented provider of the default file system, only the provider of the platform is part of the JDK
+     */
+    private static String defaultProvider() {
+        for (Class<?> provider = FileSystems.getDefault().provider().getClass(); provider != null;
+             provider = provider.getSuperclass()) {
+            String className = provider.getName().replace('.', '/');
+            if (className.equals("sun/nio/fs/UnixFileSystemProvider") || className.equals("sun/nio/fs/WindowsFileSystemProvider")) {
+                return className;
+            }
+        }
+        return Assertions.fail("unknown provider of the default file system " + FileSystems.getDefault().provider());
+    }
+
+    /**
+     * Reads the original class file of a JDK class, class files are never encapsulated
+     */
+    static byte[] readClass(String className) throws IOException {
+        try (InputStream in = Object.class.getModule().getResourceAsStream(className + ".class")) {
+            Assertions.assertNotNull(in, "class file of " + className + " not found");
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Asserts that a check is injected exactly once and that it is the first instruction of its method, only the loads
+     * of the arguments that are passed to the check may precede it
+     */
+    static void assertSingleCheckAtEntry(byte[] classBytes, String entryPoint) {
+        int checks = checksAtEntry(classBytes, entryPoint).values().stream().mapToInt(Integer::intValue).sum();
+        Assertions.assertEquals(1, checks, entryPoint + " needs to be injected exactly once");
+    }
+
+    /**
+     * Counts the checks per method and asserts that they precede the first instruction of their method, only the loads
+     * of the arguments that are passed to the checks may precede them
+     * @return Map - number of checks per name of the methods that contain a check
+     */
+    static Map<String, Integer> checksAtEntry(byte[] classBytes, String entryPoint) {
+        ClassModel classModel = ClassFile.of().parse(classBytes);
+        Map<String, Integer> checks = new HashMap<>();
+        for (MethodModel method : classModel.methods()) {
+            CodeModel code = method.code().orElse(null);
+            if (code == null) {
+                continue;
+            }
+            boolean firstInstruction = true;
+            for (CodeElement element : code) {
+                if (element instanceof Instruction) {
+                    boolean check = element instanceof InvokeDynamicInstruction invoke && invoke.name().equalsString(entryPoint);
+                    if (check) {
+                        Assertions.assertTrue(firstInstruction, entryPoint + " is not injected at the entry point of " + method.methodName());
+                        checks.merge(method.methodName().stringValue(), 1, Integer::sum);
+                    }
+                    if (!check && !(element instanceof LoadInstruction)) {
+                        firstInstruction = false;
+                    }
+                }
+            }
+        }
+        return checks;
+    }
+
+    /**
+     * Method an instrumented class was matched by before the ClassFile context was shared
+     * @param transformer - transformer whose check is injected into the method
+     * @param className - internal name of the class that declares the method
+     * @param methodName - name of the method
+     * @param descriptor - descriptor of the method
+     */
+    private record PreviousTarget(MatildaCodeTransformer transformer, String className, String methodName,
+                                  String descriptor) {
+    }
+
+    /**
+     * Application class with a guarded call, only its class file is transformed and it is never run
+     */
+    private static final class SocketClient {
+        void connect(Socket socket, SocketAddress endpoint) throws IOException {
+            socket.connect(endpoint);
+        }
+    }
+}
@@ -18,9 +18,25 @@ package org.matilda.test.bootstrap;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.matilda.bootstrap.MatildaAccessControl;
+import org.matilda.bootstrap.MatildaCallSites;
+import org.matilda.bootstrap.MatildaMetrics;
+import org.matilda.bootstrap.MatildaPolicyCompiler;
+import org.matilda.bootstrap.MatildaSecurityException;
 
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -28,6 +44,18 @@ import java.util.Properties;
  * Test set the properties and test the configuration accordingly
  */
 class MatildaAccessControlTest {
+    // Keys accepted on the commandline and in policy files, sorted as listed by the error message
+    private static final String ALLOWED_KEYS = "matilda.audit.buffer.size, matilda.audit.dir, matilda.audit.file.count, "
+            + "matilda.audit.file.size, matilda.audit.overflow, matilda.bootstrap.jar, "
+            + "matilda.callsite.instrumentation, matilda.denial.log.interval, matilda.denial.stacktrace, "
+            + "matilda.file.open.allow, matilda.file.open.instrumentation, matilda.file.open.paths, "
+            + "matilda.file.open.rate, matilda.learning.file, matilda.metrics, "
+            + "matilda.network.connect.allow, matilda.network.connect.endpoints, "
+            + "matilda.network.connect.rate, matilda.policy.file, matilda.runtime.exit.allow, "
+            + "matilda.runtime.exit.rate, matilda.server.bind.allow, matilda.server.bind.endpoints, "
+            + "matilda.server.bind.rate, matilda.system.exec.allow, matilda.system.exec.commands, "
+            + "matilda.system.exec.rate";
+
 
     /**
      * Test if setting permissions works for SystemExit
@@ -128,6 +156,423 @@ class MatildaAccessControlTest {
     }
 
 
+    /**
+     * Tests that cached verdicts are served on repeated checks and are not shared between policies
+     */
+    @Test
+    void testVerdictCachePerPolicy() {
+        Properties props = new Properties();
+        props.setProperty("matilda.network.connect.allow", "module org.junit.platform.commons");
+        MatildaAccessControl allowing = new MatildaAccessControl(props);
+        allowing.checkPermissionInternal("Socket.connect");
+        allowing.checkPermissionInternal("Socket.connect");
+
+        MatildaAccessControl denying = new MatildaAccessControl(new Properties());
+        for (int i = 0; i < 2; i++) {
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
+                denying.checkPermissionInternal("Socket.connect");
+                Assertions.fail("should not have been able to open a connection");
+            });
+            Assertions.assertEquals("Socket.connect not allowed for Module: org.junit.jupiter.api", exception.getMessage());
+        }
+        allowing.checkPermissionInternal("Socket.connect");
+    }
+
+    /**
+     * Tests that a module can be allowed several operations while the remaining operations stay denied
+     */
+    @Test
+    void testSeveralOperationsPerModule() {
+        Properties props = new Properties();
+        props.setProperty("matilda.runtime.exit.allow", "module org.junit.platform.commons");
+        props.setProperty("matilda.server.bind.allow", "module gradle.worker,module org.junit.platform.commons");
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        accessControl.checkPermissionInternal("Runtime.exit");
+        accessControl.checkPermissionInternal("ServerSocket.bind");
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            accessControl.checkPermissionInternal("Socket.connect");
+            Assertions.fail("should not have been able to open a connection");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: org.junit.jupiter.api", exception.getMessage());
+    }
+
+    /**
+     * Tests that the operation specific entry points skip the same frames as the string based check, the lambda is
+     * the instrumented method of the skipped frames and the caller is the module of assertThrows
+     */
+    @Test
+    void testOperationEntryPointsDenied() {
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            MatildaAccessControl.checkSocketConnect();
+            Assertions.fail("should not have been able to open a connection");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: org.junit.jupiter.api", exception.getMessage());
+
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            MatildaAccessControl.checkServerSocketBind();
+            Assertions.fail("should not have been able to bind a Socket");
+        });
+        Assertions.assertEquals("ServerSocket.bind not allowed for Module: org.junit.jupiter.api", exception.getMessage());
+
+        exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            MatildaAccessControl.checkProcessBuilderStart();
+            Assertions.fail("should not have been able to run a process");
+        });
+        Assertions.assertEquals("ProceesBuilder.start(...) not allowed for Module: org.junit.jupiter.api", exception.getMessage());
+    }
+
+    /**
+     * Tests that denied checks are counted per module and timed per operation
+     */
+    @Test
+    void testMetricsRecorded() {
+        long denied = MatildaMetrics.deniedChecks().getOrDefault("org.junit.jupiter.api::ServerSocket.bind", 0L);
+        long timed = Arrays.stream(MatildaMetrics.checkLatencies().get("ServerSocket.bind")).sum();
+        Assertions.assertThrows(RuntimeException.class, () -> {
+            MatildaAccessControl.checkServerSocketBind();
+            Assertions.fail("should not have been able to bind a Socket");
+        });
+        Assertions.assertEquals(denied + 1, MatildaMetrics.deniedChecks().get("org.junit.jupiter.api::ServerSocket.bind"));
+        Assertions.assertEquals(timed + 1, Arrays.stream(MatildaMetrics.checkLatencies().get("ServerSocket.bind")).sum());
+    }
+
+    /**
+     * Tests that denials are thrown as MatildaSecurityException and only the configured ones fill the stack trace
+     */
+    @Test
+    void testDenialStackTrace() {
+        Properties props = new Properties();
+        props.setProperty("matilda.denial.stacktrace", "once");
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        MatildaSecurityException first = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("Socket.connect");
+            Assertions.fail("should not have been able to open a connection");
+        });
+        MatildaSecurityException second = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("Socket.connect");
+            Assertions.fail("should not have been able to open a connection");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: org.junit.jupiter.api", first.getMessage());
+        Assertions.assertEquals("Socket.connect", second.getOperation());
+        Assertions.assertEquals("org.junit.jupiter.api", second.getModuleName());
+        Assertions.assertNotEquals(0, first.getStackTrace().length);
+        Assertions.assertEquals(0, second.getStackTrace().length);
+
+        props.setProperty("matilda.denial.stacktrace", "none");
+        MatildaSecurityException none = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            new MatildaAccessControl(props).checkPermissionInternal("Socket.connect");
+            Assertions.fail("should not have been able to open a connection");
+        });
+        Assertions.assertEquals(0, none.getStackTrace().length);
+
+        props.setProperty("matilda.denial.stacktrace", "sometimes");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            MatildaAccessControl invalid = new MatildaAccessControl(props);
+        });
+    }
+
+    /**
+     * Tests that a module exceeding its rate limit is denied an operation it is allowed to call
+     */
+    @Test
+    void testRateLimit() {
+        Properties props = new Properties();
+        props.setProperty("matilda.network.connect.allow", "module org.junit.platform.commons");
+        props.setProperty("matilda.network.connect.rate", "module org.junit.platform.commons:2");
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        accessControl.checkPermissionInternal("Socket.connect");
+        accessControl.checkPermissionInternal("Socket.connect");
+        // called directly, from a lambda of assertThrows the caller would be org.junit.jupiter.api
+        MatildaSecurityException exception = null;
+        try {
+            accessControl.checkPermissionInternal("Socket.connect");
+        } catch (MatildaSecurityException e) {
+            exception = e;
+        }
+        Assertions.assertNotNull(exception, "should have exceeded the rate limit");
+        Assertions.assertTrue(exception.isRateLimited());
+        Assertions.assertEquals("Socket.connect rate limit exceeded for Module: org.junit.platform.commons", exception.getMessage());
+
+        props.setProperty("matilda.network.connect.rate", "module org.junit.platform.commons:fast");
+        IllegalArgumentException invalid = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            MatildaAccessControl invalidAccessControl = new MatildaAccessControl(props);
+        });
+        Assertions.assertEquals("Not a valid rate limit: module org.junit.platform.commons:fast", invalid.getMessage());
+    }
+
+    /**
+     * Tests that a module with endpoint rules may only connect and bind to the endpoints of its rules
+     */
+    @Test
+    void testEndpoints() throws UnknownHostException {
+        Properties props = new Properties();
+        props.setProperty("matilda.network.connect.allow", "module *");
+        props.setProperty("matilda.server.bind.allow", "module *");
+        props.setProperty("matilda.network.connect.endpoints",
+                "module * 10.20.0.0/16:514,module * [2001:db8::]/32:443,module * logs.example.com:*,module * localhost:9000");
+        props.setProperty("matilda.server.bind.endpoints", "module * 0.0.0.0/0:8080-8089");
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        accessControl.checkPermissionInternal("Socket.connect", new InetSocketAddress(InetAddress.getByName("10.20.1.2"), 514));
+        accessControl.checkPermissionInternal("Socket.connect", new InetSocketAddress(InetAddress.getByName("2001:db8::1"), 443));
+        accessControl.checkPermissionInternal("Socket.connect", InetSocketAddress.createUnresolved("logs.example.com", 6514));
+        accessControl.checkPermissionInternal("ServerSocket.bind", new InetSocketAddress(InetAddress.getByName("0.0.0.0"), 8080));
+        // host names are resolved when the rules are loaded, a resolved address is matched by its address
+        accessControl.checkPermissionInternal("Socket.connect", new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 9000));
+        MatildaSecurityException spoofed = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("Socket.connect",
+                    new InetSocketAddress(InetAddress.getByAddress("localhost", new byte[]{10, 21, 1, 2}), 9000));
+        });
+        Assertions.assertEquals("Socket.connect to localhost/10.21.1.2:9000 not allowed for Module: org.junit.jupiter.api",
+                spoofed.getMessage());
+        MatildaSecurityException exception = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("Socket.connect", new InetSocketAddress(InetAddress.getByName("10.21.1.2"), 514));
+        });
+        Assertions.assertEquals("Socket.connect to /10.21.1.2:514 not allowed for Module: org.junit.jupiter.api", exception.getMessage());
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("Socket.connect", new InetSocketAddress(InetAddress.getByName("10.20.1.2"), 515));
+        });
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("Socket.connect");
+        });
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("ServerSocket.bind", null);
+        });
+
+        props.setProperty("matilda.server.bind.endpoints", "module * 10.0.0.0/33:80");
+        IllegalArgumentException invalid = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            MatildaAccessControl invalidAccessControl = new MatildaAccessControl(props);
+        });
+        Assertions.assertEquals("Not a valid endpoint: module * 10.0.0.0/33:80", invalid.getMessage());
+    }
+
+    /**
+     * Tests that a module with command rules may only start the commands matching its rules
+     */
+    @Test
+    void testCommands() {
+        Properties props = new Properties();
+        props.setProperty("matilda.system.exec.allow", "module *");
+        props.setProperty("matilda.system.exec.commands", "module * git **,module * tar -czf * *");
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        accessControl.checkPermissionInternal(List.of("git", "status"));
+        accessControl.checkPermissionInternal(List.of("git"));
+        accessControl.checkPermissionInternal(List.of("tar", "-czf", "sources.tgz", "src"));
+        MatildaSecurityException exception = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal(List.of("sh", "-c", "git status"));
+        });
+        Assertions.assertEquals("ProceesBuilder.start(...) of [sh, -c, git status] not allowed for Module: org.junit.jupiter.api",
+                exception.getMessage());
+        Assertions.assertEquals(List.of("sh", "-c", "git status"), exception.getCommand());
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal(List.of("tar", "-xzf", "sources.tgz", "src"));
+        });
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal(List.of("tar", "-czf", "sources.tgz"));
+        });
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("ProcessBuilder.start");
+        });
+
+        props.setProperty("matilda.system.exec.commands", "module * sh ** -c");
+        IllegalArgumentException invalid = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            MatildaAccessControl invalidAccessControl = new MatildaAccessControl(props);
+        });
+        Assertions.assertEquals("Not a valid command, ** needs to be the last pattern: module * sh ** -c", invalid.getMessage());
+    }
+
+    /**
+     * Tests that a module with path rules may only open files within its prefixes
+     */
+    @Test
+    void testFileOpen(@TempDir Path tempDir) {
+        Properties props = new Properties();
+        props.setProperty("matilda.file.open.allow", "module *");
+        props.setProperty("matilda.file.open.paths", "module * " + tempDir.resolve("data") + ",module * " + tempDir.resolve("app.properties"));
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        accessControl.checkPermissionInternal(tempDir.resolve("data/cache/entry"));
+        accessControl.checkPermissionInternal(tempDir.resolve("data/cache/entry"));
+        accessControl.checkPermissionInternal(tempDir.resolve("app.properties"));
+        MatildaSecurityException exception = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal(tempDir.resolve("data/../secret"));
+        });
+        Assertions.assertEquals(tempDir.resolve("data/../secret").toString(), exception.getFile());
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal(tempDir.resolve("database"));
+        });
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal(tempDir.resolve("data/.."));
+        });
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("File.open");
+        });
+
+        props.setProperty("matilda.file.open.paths", "module * data");
+        IllegalArgumentException invalid = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            MatildaAccessControl invalidAccessControl = new MatildaAccessControl(props);
+        });
+        Assertions.assertEquals("Not a valid path: module * data", invalid.getMessage());
+    }
+
+    /**
+     * Tests that the wildcard grants permissions to every module
+     */
+    @Test
+    void testAllModulesAllowed() {
+        Properties props = new Properties();
+        props.setProperty("matilda.network.connect.allow", "module *");
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        accessControl.checkPermissionInternal("Socket.connect");
+        Assertions.assertThrows(RuntimeException.class, () -> {
+            accessControl.checkPermissionInternal("ServerSocket.bind");
+            Assertions.fail("should not have been able to bind a Socket");
+        });
+    }
+
+    /**
+     * Tests that the invokedynamic call sites are linked to the entry points if an operation is restricted, the
+     * lambda takes the place of the instrumented method and the caller is the module of assertThrows
+     */
+    @Test
+    void testCallSiteLinkedToEntryPoint() {
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            MatildaCallSites.bootstrap(MethodHandles.lookup(), "checkSocketConnect", MethodType.methodType(void.class))
+                    .dynamicInvoker().invokeExact();
+            Assertions.fail("should not have been able to open a connection");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: org.junit.jupiter.api", exception.getMessage());
+    }
+
+    /**
+     * Tests that the policy is loaded from the policy file instead of the properties
+     */
+    @Test
+    void testPolicyFile(@TempDir Path directory) throws IOException {
+        Path policyFile = directory.resolve("matilda.properties");
+        Files.writeString(policyFile, "matilda.network.connect.allow=module org.junit.platform.commons\n");
+        Properties props = new Properties();
+        props.setProperty("matilda.policy.file", policyFile.toString());
+        props.setProperty("matilda.server.bind.allow", "module org.junit.platform.commons");
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        accessControl.checkPermissionInternal("Socket.connect");
+        Assertions.assertThrows(RuntimeException.class, () -> {
+            accessControl.checkPermissionInternal("ServerSocket.bind");
+            Assertions.fail("should not have been able to bind a Socket");
+        });
+    }
+
+    /**
+     * Tests that all rules are loaded from the policy file, the rules of the properties don't apply
+     */
+    @Test
+    void testPolicyFileRules(@TempDir Path directory) throws IOException {
+        Path policyFile = directory.resolve("matilda.properties");
+        Files.writeString(policyFile, "matilda.network.connect.allow=module *\n"
+                + "matilda.network.connect.endpoints=module * 10.20.0.0/16:514\n"
+                + "matilda.runtime.exit.allow=module *\n"
+                + "matilda.runtime.exit.rate=module *:1\n"
+                + "matilda.denial.stacktrace=none\n");
+        Properties props = new Properties();
+        props.setProperty("matilda.policy.file", policyFile.toString());
+        props.setProperty("matilda.network.connect.endpoints", "module * 10.21.0.0/16:514");
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        accessControl.checkPermissionInternal("Socket.connect", new InetSocketAddress(InetAddress.getByName("10.20.1.2"), 514));
+        MatildaSecurityException exception = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("Socket.connect", new InetSocketAddress(InetAddress.getByName("10.21.1.2"), 514));
+        });
+        Assertions.assertEquals(0, exception.getStackTrace().length, "the denial configuration of the file applies");
+        accessControl.checkPermissionInternal("Runtime.exit");
+        exception = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("Runtime.exit");
+        });
+        Assertions.assertTrue(exception.isRateLimited());
+
+        // properties of the agent can't be changed by a policy file
+        Files.writeString(policyFile, "matilda.learning.file=learned.properties\n");
+        IllegalArgumentException invalid = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            MatildaAccessControl invalidAccessControl = new MatildaAccessControl(props);
+        });
+        Assertions.assertEquals("matilda.learning.file can only be set on the commandline, not in the policy file "
+                + policyFile, invalid.getMessage());
+    }
+
+    /**
+     * Tests that a compiled policy file is loaded with the same permissions as its source
+     */
+    @Test
+    void testCompiledPolicyFile(@TempDir Path directory) throws IOException {
+        Path source = directory.resolve("matilda.properties");
+        Files.writeString(source, "matilda.network.connect.allow=module gradle.worker,module org.junit.platform.commons\n"
+                + "matilda.runtime.exit.allow=module *\n"
+                + "matilda.runtime.exit.rate=module *:1\n"
+                + "matilda.server.bind.allow=module org.junit.platform.commons\n"
+                + "matilda.server.bind.endpoints=module org.junit.platform.commons 127.0.0.0/8:8080\n"
+                + "matilda.denial.stacktrace=none\n");
+        Path compiled = directory.resolve("matilda.policy");
+        MatildaPolicyCompiler.compile(source, compiled);
+        Properties props = new Properties();
+        props.setProperty("matilda.policy.file", compiled.toString());
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        accessControl.checkPermissionInternal("Socket.connect");
+        accessControl.checkPermissionInternal("Runtime.exit");
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            accessControl.checkPermissionInternal("Socket.connect");
+            Assertions.fail("should not have been able to open a connection");
+        });
+        Assertions.assertEquals("Socket.connect not allowed for Module: org.junit.jupiter.api", exception.getMessage());
+        Assertions.assertEquals(0, exception.getStackTrace().length, "the denial configuration is compiled as well");
+
+        // rate limits and endpoints are compiled as well
+        MatildaSecurityException limited = Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("Runtime.exit");
+        });
+        Assertions.assertTrue(limited.isRateLimited());
+        accessControl.checkPermissionInternal("ServerSocket.bind", new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 8080));
+        Assertions.assertThrows(MatildaSecurityException.class, () -> {
+            accessControl.checkPermissionInternal("ServerSocket.bind", new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 9090));
+        });
+
+        // keys that configure the agent are rejected by the compiler
+        Files.writeString(source, "matilda.audit.dir=audit\n");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MatildaPolicyCompiler.compile(source, compiled));
+        // rules are validated by the compiler
+        Files.writeString(source, "matilda.network.connect.rate=module *:fast\n");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MatildaPolicyCompiler.compile(source, compiled));
+
+        // the loaded policy is a copy, truncating the file in place doesn't change it
+        Files.write(compiled, new byte[0]);
+        accessControl.checkPermissionInternal("Socket.connect");
+
+        // a module table without an empty slot is rejected, a lookup of a module without rules would never end
+        ByteBuffer table = ByteBuffer.allocate(47);
+        table.putInt(0x004D5450).putInt(2).putInt(1).putInt(43).putLong(0)
+                .putInt("a".hashCode()).putInt(40).putLong(1).putShort((short) 1).put((byte) 'a').putInt(0);
+        Files.write(compiled, table.array());
+        IllegalArgumentException invalid = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            MatildaAccessControl invalidAccessControl = new MatildaAccessControl(props);
+        });
+        Assertions.assertEquals("Module table without an empty slot in compiled policy: " + compiled, invalid.getMessage());
+    }
+
+    /**
+     * Tests input validation of the policy file
+     */
+    @Test
+    void testMaleFormedPolicyFile(@TempDir Path directory) throws IOException {
+        Path policyFile = directory.resolve("matilda.properties");
+        Files.writeString(policyFile, "matilda.system.foo.allow=module org.junit.platform.commons\n");
+        Properties props = new Properties();
+        props.setProperty("matilda.policy.file", policyFile.toString());
+        RuntimeException uOE = Assertions.assertThrows(RuntimeException.class, () -> {
+            MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        });
+        Assertions.assertEquals("matilda.system.foo.allow is not a valid key. Allowed keys are: " + ALLOWED_KEYS, uOE.getMessage());
+
+        props.setProperty("matilda.policy.file", directory.resolve("missing.properties").toString());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        });
+    }
+
     /**
      * Tests input validation for keys
      */
@@ -139,7 +584,7 @@ class MatildaAccessControlTest {
         RuntimeException uOE = Assertions.assertThrows(RuntimeException.class, () -> {
             MatildaAccessControl accessControl = new MatildaAccessControl(props);
         });
-        Assertions.assertEquals("matilda.system.foo.allow is not a valid key. Allowed keys are: matilda.runtime.exit.allow, matilda.system.exec.allow,matilda.network.connect.allow", uOE.getMessage());
+        Assertions.assertEquals("matilda.system.foo.allow is not a valid key. Allowed keys are: " + ALLOWED_KEYS, uOE.getMessage());
     }
 
     /**
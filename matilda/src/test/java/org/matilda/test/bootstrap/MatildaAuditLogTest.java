@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.test.bootstrap;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matilda.bootstrap.MatildaAuditLog;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests the audit log with audit logs created per test, the audit log of the commandline is not enabled for tests
+ */
+class MatildaAuditLogTest {
+
+    /**
+     * Tests that recorded events are written in the order they have been recorded
+     */
+    @Test
+    void testEventsWritten(@TempDir Path directory) throws IOException {
+        MatildaAuditLog auditLog = new MatildaAuditLog(directory, 16, MatildaAuditLog.Overflow.BLOCK, 1 << 20, 2);
+        auditLog.start();
+        auditLog.record(MatildaAuditLogTest.class.getModule(), 2, true);
+        auditLog.record(Object.class.getModule(), 3, false);
+        auditLog.close();
+        List<String> lines = Files.readAllLines(directory.resolve("audit.log.0"));
+        Assertions.assertEquals(2, lines.size());
+        Assertions.assertTrue(lines.get(0).endsWith("::matilda.test::Socket.connect::allowed"), lines.get(0));
+        Assertions.assertTrue(lines.get(1).endsWith("::java.base::ServerSocket.bind::denied"), lines.get(1));
+        Assertions.assertEquals(0, auditLog.droppedEvents());
+    }
+
+    /**
+     * Tests that events are dropped and counted if the buffer is full
+     */
+    @Test
+    void testDroppedWhenFull(@TempDir Path directory) throws IOException {
+        MatildaAuditLog auditLog = new MatildaAuditLog(directory, 4, MatildaAuditLog.Overflow.DROP, 1 << 20, 2);
+        for (int i = 0; i < 10; i++) {
+            auditLog.record(MatildaAuditLogTest.class.getModule(), 0, false);
+        }
+        Assertions.assertEquals(6, auditLog.droppedEvents());
+        auditLog.close();
+        Assertions.assertEquals(4, Files.readAllLines(directory.resolve("audit.log.0")).size());
+    }
+
+    /**
+     * Tests that no event is lost by concurrent checks if the checks block, only the configured number of files is kept
+     */
+    @Test
+    void testBlockingWithRotation(@TempDir Path directory) throws InterruptedException {
+        MatildaAuditLog auditLog = new MatildaAuditLog(directory, 64, MatildaAuditLog.Overflow.BLOCK, 4096, 3);
+        auditLog.start();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    auditLog.record(MatildaAuditLogTest.class.getModule(), 1, false);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        auditLog.close();
+        Assertions.assertEquals(0, auditLog.droppedEvents());
+        Assertions.assertTrue(Files.exists(directory.resolve("audit.log.2")));
+        Assertions.assertFalse(Files.exists(directory.resolve("audit.log.3")));
+    }
+
+    /**
+     * Tests that checks blocked by a writer that is slower than the checks park instead of spinning. Every event
+     * rotates all files, the writer spends its time in the file system while the buffer stays full.
+     */
+    @Test
+    void testBlockedChecksPark(@TempDir Path directory) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads.isCurrentThreadCpuTimeSupported());
+        MatildaAuditLog auditLog = new MatildaAuditLog(directory, 4, MatildaAuditLog.Overflow.BLOCK, 1, 32);
+        auditLog.start();
+        AtomicLong cpuNanos = new AtomicLong();
+        AtomicLong wallNanos = new AtomicLong();
+        Thread[] producers = new Thread[4];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread(() -> {
+                long start = System.nanoTime();
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                for (int j = 0; j < 200; j++) {
+                    auditLog.record(MatildaAuditLogTest.class.getModule(), 1, false);
+                }
+                cpuNanos.addAndGet(threads.getCurrentThreadCpuTime() - cpuStart);
+                wallNanos.addAndGet(System.nanoTime() - start);
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        auditLog.close();
+        Assertions.assertEquals(0, auditLog.droppedEvents());
+        Assertions.assertTrue(Files.exists(directory.resolve("audit.log.31")));
+        // spinning checks would use their cores for the whole time they are blocked
+        Assertions.assertTrue(cpuNanos.get() < wallNanos.get() / 2,
+                "blocked checks used " + cpuNanos.get() + " of " + wallNanos.get() + " nanoseconds");
+    }
+}
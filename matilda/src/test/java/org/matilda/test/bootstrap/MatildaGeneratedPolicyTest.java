@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.test.bootstrap;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matilda.bootstrap.MatildaAccessControl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Differential tests of the generated policies, a policy generated by MatildaGeneratedPolicy must allow exactly the
+ * operations the interpreted policies allow, for the modules of the boot layer, the test module, unnamed modules and
+ * calls without a module. The policies are package-private, they are reached via the package opened to this module.
+ */
+class MatildaGeneratedPolicyTest {
+    // Number of operation bits that are compared per module
+    private static final int OPERATIONS = Long.SIZE;
+    // Policies with more indexes are not generated, see MatildaGeneratedPolicy.MAX_INDEXES
+    private static final int MAX_INDEXES = 8192;
+    private static final MethodHandle ARRAY_POLICY;
+    private static final MethodHandle WRITE_COMPILED_POLICY;
+    private static final MethodHandle LOAD_COMPILED_POLICY;
+    private static final MethodHandle GENERATE;
+    private static final MethodHandle ALLOWS;
+    private static final MethodHandle INDEX_COUNT;
+    private static final Class<?> GENERATED_POLICY;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(MatildaAccessControl.class, MethodHandles.lookup());
+            Class<?> policy = lookup.findClass("org.matilda.bootstrap.MatildaPolicy");
+            Class<?> compiledPolicy = lookup.findClass("org.matilda.bootstrap.MatildaCompiledPolicy");
+            GENERATED_POLICY = lookup.findClass("org.matilda.bootstrap.MatildaGeneratedPolicy");
+            ARRAY_POLICY = lookup.findConstructor(lookup.findClass("org.matilda.bootstrap.MatildaArrayPolicy"),
+                    MethodType.methodType(void.class, Map.class)).asType(MethodType.methodType(Object.class, Map.class));
+            WRITE_COMPILED_POLICY = lookup.findStatic(compiledPolicy, "write",
+                    MethodType.methodType(void.class, Map.class, Properties.class, Path.class));
+            LOAD_COMPILED_POLICY = lookup.findStatic(compiledPolicy, "load",
+                    MethodType.methodType(compiledPolicy, Path.class)).asType(MethodType.methodType(Object.class, Path.class));
+            GENERATE = lookup.findStatic(GENERATED_POLICY, "generate", MethodType.methodType(policy, policy))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            ALLOWS = lookup.findVirtual(policy, "allows", MethodType.methodType(boolean.class, Module.class, int.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class, Module.class, int.class));
+            INDEX_COUNT = lookup.findVirtual(policy, "indexCount", MethodType.methodType(int.class))
+                    .asType(MethodType.methodType(int.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Tests random policies with few distinct bitmasks, as configurations usually grant the same operations to many
+     * modules
+     */
+    @Test
+    void testGeneratedPolicyAgreesWithSharedBitmasks(@TempDir Path directory) throws Throwable {
+        Random random = new Random(42);
+        for (int ruleCount : new int[]{0, 1, 17, 1000, 8000}) {
+            Map<String, Long> rules = randomRules(random, ruleCount, () -> (long) random.nextInt(16));
+            assertAgrees(rules, directory);
+        }
+    }
+
+    /**
+     * Tests random policies where every module has its own bitmask, including the highest operation bit
+     */
+    @Test
+    void testGeneratedPolicyAgreesWithDistinctBitmasks(@TempDir Path directory) throws Throwable {
+        Random random = new Random(7);
+        for (int ruleCount : new int[]{1, 64, 4096}) {
+            Map<String, Long> rules = randomRules(random, ruleCount, () -> random.nextLong() | Long.MIN_VALUE);
+            assertAgrees(rules, directory);
+        }
+    }
+
+    /**
+     * Tests that operations granted to every module apply to modules without a rule and calls without a module
+     */
+    @Test
+    void testAllModulesAgree(@TempDir Path directory) throws Throwable {
+        Random random = new Random(11);
+        Map<String, Long> rules = randomRules(random, 100, () -> (long) random.nextInt(16));
+        rules.put("module *", 0b10000L | Long.MIN_VALUE);
+        assertAgrees(rules, directory);
+    }
+
+    /**
+     * Tests that policies that don't fit into a generated method stay interpreted and still agree
+     */
+    @Test
+    void testTooManyModulesInterpreted(@TempDir Path directory) throws Throwable {
+        Random random = new Random(3);
+        Map<String, Long> rules = randomRules(random, 9000, () -> (long) random.nextInt(16));
+        assertAgrees(rules, directory);
+        Assertions.assertTrue((int) INDEX_COUNT.invoke(ARRAY_POLICY.invoke(rules)) > MAX_INDEXES);
+    }
+
+    /**
+     * Grants random operations to random modules of the boot layer, the test module, the unnamed modules and to
+     * modules that don't exist
+     */
+    private static Map<String, Long> randomRules(Random random, int ruleCount, LongSupplier masks) {
+        List<String> names = new ArrayList<>();
+        for (Module module : ModuleLayer.boot().modules()) {
+            names.add(module.toString());
+        }
+        names.add(MatildaGeneratedPolicyTest.class.getModule().toString());
+        names.add("module ALL-UNNAMED");
+        Map<String, Long> rules = new HashMap<>();
+        for (int rule = 0; rule < ruleCount; rule++) {
+            String name = random.nextInt(4) == 0 && !names.isEmpty()
+                    ? names.remove(random.nextInt(names.size()))
+                    : "module org.matilda.generated.module" + rule;
+            rules.put(name, masks.getAsLong());
+        }
+        return rules;
+    }
+
+    /**
+     * Compares the generated policies with the interpreted policies they are generated from, a policy is only
+     * generated if its indexes fit into a generated method
+     */
+    private static void assertAgrees(Map<String, Long> rules, Path directory) throws Throwable {
+        Path policyFile = directory.resolve("matilda.policy");
+        WRITE_COMPILED_POLICY.invoke(rules, new Properties(), policyFile);
+        Object arrayPolicy = ARRAY_POLICY.invoke(rules);
+        Object compiledPolicy = LOAD_COMPILED_POLICY.invoke(policyFile);
+        Object generatedArrayPolicy = GENERATE.invoke(arrayPolicy);
+        Object generatedCompiledPolicy = GENERATE.invoke(compiledPolicy);
+        Assertions.assertEquals((int) INDEX_COUNT.invoke(arrayPolicy) <= MAX_INDEXES,
+                GENERATED_POLICY.isInstance(generatedArrayPolicy), rules.size() + " rules");
+        Assertions.assertEquals((int) INDEX_COUNT.invoke(compiledPolicy) <= MAX_INDEXES,
+                GENERATED_POLICY.isInstance(generatedCompiledPolicy), rules.size() + " rules");
+
+        List<Module> modules = new ArrayList<>(ModuleLayer.boot().modules());
+        modules.add(MatildaGeneratedPolicyTest.class.getModule());
+        modules.add(ClassLoader.getSystemClassLoader().getUnnamedModule());
+        try (URLClassLoader loader = new URLClassLoader(new URL[0])) {
+            modules.add(loader.getUnnamedModule());
+        }
+        modules.add(null);
+        for (Module module : modules) {
+            for (int operation = 0; operation < OPERATIONS; operation++) {
+                boolean interpreted = (boolean) ALLOWS.invoke(arrayPolicy, module, operation);
+                String message = module + " operation " + operation + " of " + rules.size() + " rules";
+                Assertions.assertEquals(interpreted, (boolean) ALLOWS.invoke(compiledPolicy, module, operation), message);
+                Assertions.assertEquals(interpreted, (boolean) ALLOWS.invoke(generatedArrayPolicy, module, operation), message);
+                Assertions.assertEquals(interpreted, (boolean) ALLOWS.invoke(generatedCompiledPolicy, module, operation), message);
+            }
+        }
+    }
+}
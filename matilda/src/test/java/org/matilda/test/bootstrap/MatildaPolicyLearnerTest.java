@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matilda.test.bootstrap;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matilda.bootstrap.MatildaAccessControl;
+import org.matilda.bootstrap.MatildaPolicyLearner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tests that the policy written in learning mode grants exactly the recorded operations
+ */
+class MatildaPolicyLearnerTest {
+
+    @Test
+    void testLearnedPolicy(@TempDir Path directory) throws IOException {
+        Path policyFile = directory.resolve("learned.properties");
+        MatildaPolicyLearner learner = new MatildaPolicyLearner(policyFile);
+        Module unnamedModule = ClassLoader.getSystemClassLoader().getUnnamedModule();
+        learner.record(MatildaPolicyLearnerTest.class.getModule(), 2);
+        learner.record(MatildaPolicyLearnerTest.class.getModule(), 2);
+        learner.record(Test.class.getModule(), 2);
+        learner.record(unnamedModule, 0);
+        learner.record(null, 3);
+        learner.write();
+
+        List<String> lines = Files.readAllLines(policyFile);
+        Assertions.assertTrue(lines.contains("matilda.runtime.exit.allow=module ALL-UNNAMED"), lines.toString());
+        Assertions.assertTrue(lines.contains("matilda.network.connect.allow=module matilda.test,module org.junit.jupiter.api"), lines.toString());
+        Assertions.assertFalse(lines.stream().anyMatch(line -> line.startsWith("matilda.system.exec.allow")), lines.toString());
+        // operations without a calling module are only noted, a grant for module * is left to the reviewer
+        Assertions.assertTrue(lines.contains("# ServerSocket.bind has been called without an application module on the stack, "
+                + "only module * allows it"), lines.toString());
+        Assertions.assertFalse(lines.stream().anyMatch(line -> line.startsWith("matilda.server.bind.allow")), lines.toString());
+
+        // the learned policy is a valid policy file
+        Properties props = new Properties();
+        props.setProperty("matilda.policy.file", policyFile.toString());
+        MatildaAccessControl accessControl = new MatildaAccessControl(props);
+        Assertions.assertThrows(RuntimeException.class, () -> {
+            accessControl.checkPermissionInternal("ProcessBuilder.start");
+            Assertions.fail("should not have been able to run a process");
+        });
+    }
+}